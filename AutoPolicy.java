@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AutoPolicy - Picks the eviction policy and maxW for {@code --policy auto} by compressing a sample of the input with
+ * every policy at several widths and keeping the smallest output ({@code auto}, candidates run in parallel) or the
+ * highest throughput ({@code auto-speed}, the finalists whose output is close to the smallest then timed one at a
+ * time on a short slice). The race runs in rounds that drop the larger candidates and costs at most a couple of passes
+ * over the input, so a small input is not raced at all. The choice is an ordinary policy and width, so it goes into the usual header and expanding needs nothing new.
+ */
+public class AutoPolicy
+{
+    /**
+     * Bytes of input the candidates are raced on
+     */
+    public static final int SAMPLE_SIZE = 1 << 20;
+
+    /**
+     * Number of evenly spaced pieces a file sample is made of
+     */
+    private static final int SAMPLE_SLICES = 16;
+
+    /**
+     * Widths tried: maxW and up to two narrower ones, two bits apart
+     */
+    private static final int WIDTH_CHOICES = 3;
+
+    private static final int WIDTH_STEP = 2;
+
+    private static final String[] POLICIES = {"freeze", "reset", "lru", "lfu", "adaptive"};
+
+    /**
+     * Bytes all the candidates compress between them, at most this many times the input size
+     */
+    private static final int RACE_BUDGET = 2;
+
+    /**
+     * Each round of the race keeps the best 1/ROUND_CUT of the candidates and races them on ROUND_CUT times as much
+     */
+    private static final int ROUND_CUT = 3;
+
+    /**
+     * Fewest sample bytes worth racing on in the first round; below this the first policy at maxW is used
+     */
+    private static final int MIN_RACE = 1 << 14;
+
+    /**
+     * auto-speed: only candidates whose output is at most this much larger than the smallest are timed
+     */
+    private static final double SIZE_SLACK = 0.05;
+
+    /**
+     * auto-speed: bytes of the sample each remaining candidate is timed on. The race has already run every policy's
+     * code, so the JIT has compiled it.
+     */
+    private static final int SPEED_SLICE = 1 << 16;
+
+    /**
+     * auto-speed: timed runs per candidate, of which the fastest counts
+     */
+    private static final int SPEED_RUNS = 2;
+
+    /**
+     * auto-speed: candidates at most this much slower than the fastest count as equally fast, and the smallest output
+     * among them wins, so timing noise between close candidates does not change the pick from one run to the next
+     */
+    private static final double SPEED_MARGIN = 0.25;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * True for the policy names that ask for an automatic choice
+     */
+    public static boolean isAuto(String policy)
+    {
+        return policy.equals("auto") || policy.equals("auto-speed");
+    }
+
+    /**
+     * Sample of a file: the whole file if it is small, otherwise evenly spaced slices that add up to
+     * {@link #SAMPLE_SIZE}, so a file whose content changes part way through is judged on all of it
+     */
+    public static byte[] sample(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size <= SAMPLE_SIZE)
+            {
+                ByteBuffer sample = ByteBuffer.allocate((int) size);
+                readFully(channel, sample, 0);
+                return sample.array();
+            }
+
+            ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+            int slice = SAMPLE_SIZE / SAMPLE_SLICES;
+            long stride = (size - slice) / (SAMPLE_SLICES - 1);
+            for (int i = 0; i < SAMPLE_SLICES; i++)
+            {
+                sample.limit((i + 1) * slice);
+                readFully(channel, sample, i * stride);
+            }
+            return sample.array();
+        }
+    }
+
+    // Fill the rest of buffer from the file starting at position
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int start = buffer.position();
+            if (channel.read(buffer, position) < 0)
+            {
+                throw new IOException("File shrank while sampling");
+            }
+            position += buffer.position() - start;
+        }
+    }
+
+    /**
+     * Race every policy at every candidate width on {@code sample[0..length)} and return the winner. Widths go from
+     * {@code maxW} down, never below {@code minW}; ties keep the earlier candidate, so wider codes and simpler policies
+     * win when nothing is gained. The race runs in rounds on evenly spaced pieces of the sample: every candidate on a
+     * short stretch, then the best {@code 1/ROUND_CUT} of them on a stretch {@code ROUND_CUT} times longer, and so on
+     * until one is left, with the first stretch sized so all the rounds together compress at most
+     * {@link #RACE_BUDGET} times the input. When that stretch would be under {@link #MIN_RACE} there is no race. For
+     * speed, the finalists within {@link #SIZE_SLACK} of the smallest are timed, and those within
+     * {@link #SPEED_MARGIN} of the fastest are compared by size.
+     *
+     * @param inputSize  bytes in the whole input, or as many as are known to be there
+     * @param favorSpeed pick the highest bytes per second instead of the smallest output
+     */
+    public static Choice choose(byte[] sample, int length, long inputSize, int minW, int maxW, List<String> alphabet,
+                                Dictionary dictionary, boolean escapes, boolean favorSpeed)
+    {
+        List<Choice> field = new ArrayList<>();
+        for (int width = maxW; width >= minW && width > maxW - WIDTH_CHOICES * WIDTH_STEP; width -= WIDTH_STEP)
+        {
+            for (String policy : POLICIES)
+            {
+                field.add(new Choice(policy, width, 0, 0));
+            }
+        }
+
+        // Cost of the rounds in first-stretch lengths, and how much longer the last stretch is than the first
+        long units = 0;
+        int scale = 1;
+        for (int n = field.size(); n > 1; n = (n + ROUND_CUT - 1) / ROUND_CUT, scale *= ROUND_CUT)
+        {
+            units += (long) n * scale;
+        }
+        scale = Math.max(scale / ROUND_CUT, 1);
+        int raceLength = (int) Math.min(length / scale, RACE_BUDGET * inputSize / units);
+        if (raceLength < MIN_RACE)
+        {
+            return new Choice(POLICIES[0], maxW, 0, 0);
+        }
+
+        while (true)
+        {
+            byte[] race = raceLength == length ? sample : spread(sample, length, raceLength);
+            Choice[] results = race(field, race, raceLength, minW, alphabet, dictionary, escapes);
+
+            // Stable, so ties keep the earlier candidate
+            List<Choice> ranked = new ArrayList<>(List.of(results));
+            ranked.sort(Comparator.comparingLong(choice -> choice.bits));
+            int keep = (field.size() + ROUND_CUT - 1) / ROUND_CUT;
+            if (keep == 1)
+            {
+                return favorSpeed ? fastest(ranked, race, Math.min(raceLength, SPEED_SLICE), minW, alphabet,
+                        dictionary, escapes) : ranked.get(0);
+            }
+            field = ranked.subList(0, keep);
+            raceLength *= ROUND_CUT;
+        }
+    }
+
+    // Evenly spaced pieces of sample[0..length), raceLength bytes in all, each as long as one slice of a file sample
+    // or longer, so the policies are judged on runs of the input long enough to fill a codebook
+    private static byte[] spread(byte[] sample, int length, int raceLength)
+    {
+        int pieces = Math.max(1, Math.min(SAMPLE_SLICES, raceLength / (SAMPLE_SIZE / SAMPLE_SLICES)));
+        byte[] race = new byte[raceLength];
+        for (int i = 0; i < pieces; i++)
+        {
+            int from = (int) ((long) raceLength * i / pieces);
+            int to = (int) ((long) raceLength * (i + 1) / pieces);
+            System.arraycopy(sample, (int) ((long) length * i / pieces), race, from, to - from);
+        }
+        return race;
+    }
+
+    // Compress sample[0..length) with every candidate in parallel; the results are in candidate order
+    private static Choice[] race(List<Choice> field, byte[] sample, int length, int minW, List<String> alphabet,
+                                 Dictionary dictionary, boolean escapes)
+    {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), field.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Choice>> trials = new ArrayList<>();
+            for (Choice candidate : field)
+            {
+                trials.add(pool.submit(() -> trial(sample, length, minW, candidate.maxW, candidate.policy, alphabet,
+                        dictionary, escapes)));
+            }
+
+            Choice[] results = new Choice[trials.size()];
+            for (int i = 0; i < results.length; i++)
+            {
+                results[i] = trials.get(i).get();
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while choosing a policy", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Policy trial failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    // Time the finalists whose output was within SIZE_SLACK of the smallest (ranked comes smallest first) on this
+    // thread alone, on the first length bytes of the last round's stretch, SPEED_RUNS times each, keeping each one's
+    // fastest run
+    private static Choice fastest(List<Choice> ranked, byte[] sample, int length, int minW, List<String> alphabet,
+                                  Dictionary dictionary, boolean escapes)
+    {
+        long smallest = ranked.get(0).bits;
+        List<Choice> timed = new ArrayList<>();
+        for (Choice result : ranked)
+        {
+            if (result.bits > smallest * (1 + SIZE_SLACK))
+            {
+                continue;
+            }
+            long nanos = Long.MAX_VALUE;
+            for (int run = 0; run < SPEED_RUNS; run++)
+            {
+                nanos = Math.min(nanos, trial(sample, length, minW, result.maxW, result.policy, alphabet, dictionary,
+                        escapes).nanos);
+            }
+            timed.add(new Choice(result.policy, result.maxW, result.bits, nanos));
+        }
+
+        long fastest = Long.MAX_VALUE;
+        for (Choice choice : timed)
+        {
+            fastest = Math.min(fastest, choice.nanos);
+        }
+        Choice pick = null;
+        for (Choice choice : timed)
+        {
+            if (choice.nanos <= fastest * (1 + SPEED_MARGIN) && (pick == null || choice.bits < pick.bits))
+            {
+                pick = choice;
+            }
+        }
+        return pick;
+    }
+
+    // Compress the sample with one candidate, keeping only the output size and the time taken
+    private static Choice trial(byte[] sample, int length, int minW, int maxW, String policy, List<String> alphabet,
+                                Dictionary dictionary, boolean escapes)
+    {
+        BitOutput out = new BitOutput(OutputStream.nullOutputStream());
+        long start = THREADS.getCurrentThreadCpuTime();
+        LZWTool.compress(minW, maxW, policy, alphabet, dictionary, escapes,
+                new BitInput(ByteBuffer.wrap(sample, 0, length)), out);
+        return new Choice(policy, maxW, out.bitsWritten(), THREADS.getCurrentThreadCpuTime() - start);
+    }
+
+    /**
+     * Outcome of one candidate on the sample
+     */
+    public static class Choice
+    {
+        public final String policy;
+
+        public final int maxW;
+
+        final long bits;    // compressed size of the sample
+
+        final long nanos;   // CPU time the compressing thread spent on it
+
+        Choice(String policy, int maxW, long bits, long nanos)
+        {
+            this.policy = policy;
+            this.maxW = maxW;
+            this.bits = bits;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 /******************************************************************************
  *  Compilation:  javac BinaryStdIn.java
  *  Execution:    java BinaryStdIn < input > output
- *  Dependencies: none             
+ *  Dependencies: BitInput.java
  *  
  *  Supports reading binary data from standard input.
  *
@@ -10,8 +10,7 @@
  *
  ******************************************************************************/
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.NoSuchElementException;
 
 /**
@@ -34,35 +33,22 @@ import java.util.NoSuchElementException;
  *  @author Kevin Wayne
  */
 public final class BinaryStdIn {
-    private static final int EOF = -1;      // end of file
-
-    private static BufferedInputStream in;  // input stream
-    private static int buffer;              // one character buffer
-    private static int n;                   // number of bits left in buffer
+    private static BitInput in;             // bit reader over standard input
     private static boolean isInitialized;   // has BinaryStdIn been called for first time?
 
     // don't instantiate
     private BinaryStdIn() { }
 
-    // fill buffer
+    // wrap standard input; bytes are fetched on first use
     private static void initialize() {
-        in = new BufferedInputStream(System.in);
-        buffer = 0;
-        n = 0;
-        fillBuffer();
+        in = new BitInput(System.in);
         isInitialized = true;
     }
 
-    private static void fillBuffer() {
-        try {
-            buffer = in.read();
-            n = 8;
-        }
-        catch (IOException e) {
-            System.out.println("EOF");
-            buffer = EOF;
-            n = -1;
-        }
+    // remove the next r bits (1 <= r <= 32) from standard input
+    private static int readBits(int r) {
+        if (!isInitialized) initialize();
+        return in.readInt(r);
     }
 
    /**
@@ -74,8 +60,8 @@ public final class BinaryStdIn {
             in.close();
             isInitialized = false;
         }
-        catch (IOException ioe) {
-            throw new IllegalStateException("Could not close BinaryStdIn", ioe);
+        catch (UncheckedIOException ioe) {
+            throw new IllegalStateException("Could not close BinaryStdIn", ioe.getCause());
         }
     }
 
@@ -84,8 +70,19 @@ public final class BinaryStdIn {
      * @return true if and only if standard input is empty
      */
     public static boolean isEmpty() {
+        return !hasBits(1);
+    }
+
+   /**
+     * Returns true if at least r more bits can be read from standard input.
+     * Only refills when the bit buffer holds fewer than r bits.
+     *
+     * @param  r number of bits wanted, at most 57
+     * @return true if and only if the next {@code r} bits are available
+     */
+    public static boolean hasBits(int r) {
         if (!isInitialized) initialize();
-        return buffer == EOF;
+        return in.hasBits(r);
     }
 
    /**
@@ -95,11 +92,7 @@ public final class BinaryStdIn {
      * @throws NoSuchElementException if standard input is empty
      */
     public static boolean readBoolean() {
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-        n--;
-        boolean bit = ((buffer >> n) & 1) == 1;
-        if (n == 0) fillBuffer();
-        return bit;
+        return readBits(1) == 1;
     }
 
    /**
@@ -111,26 +104,7 @@ public final class BinaryStdIn {
      * @throws NoSuchElementException if there are fewer than 8 bits available on standard input
      */
     public static char readChar() {
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-
-        // special case when aligned byte
-        if (n == 8) {
-            int x = buffer;
-            fillBuffer();
-            return (char) (x & 0xff);
-        }
-
-        // combine last n bits of current buffer with first 8-n bits of new buffer
-        int x = buffer;
-        x <<= (8 - n);
-        int oldN = n;
-        fillBuffer();
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-        n = oldN;
-        x |= (buffer >>> n);
-        return (char) (x & 0xff);
-        // the above code doesn't quite work for the last character if n = 8
-        // because buffer will be -1, so there is a special case for aligned byte
+        return (char) readBits(8);
     }
 
    /**
@@ -144,16 +118,7 @@ public final class BinaryStdIn {
     public static char readChar(int r) {
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 8 case
-        if (r == 8) return readChar();
-
-        char x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return (char) readBits(r);
     }
 
    /**
@@ -198,13 +163,7 @@ public final class BinaryStdIn {
      * @throws NoSuchElementException if there are fewer than 32 bits available on standard input
      */
     public static int readInt() {
-        int x = 0;
-        for (int i = 0; i < 4; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        return readBits(32);
     }
 
    /**
@@ -218,16 +177,7 @@ public final class BinaryStdIn {
     public static int readInt(int r) {
         if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 32 case
-        if (r == 32) return readInt();
-
-        int x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return readBits(r);
     }
 
    /**
@@ -1,7 +1,7 @@
 /******************************************************************************
  *  Compilation:  javac BinaryStdOut.java
  *  Execution:    java BinaryStdOut
- *  Dependencies: none
+ *  Dependencies: BitOutput.java
  *
  *  Write binary data to standard output, either one 1-bit boolean,
  *  one 8-bit char, one 32-bit int, one 64-bit double, one 32-bit float,
@@ -10,8 +10,6 @@
  *  The bytes written are not aligned.
  *
  ******************************************************************************/
-import java.io.BufferedOutputStream;
-import java.io.IOException;
 
 /**
  *  <i>Binary standard output</i>. This class provides methods for converting
@@ -30,9 +28,7 @@ import java.io.IOException;
  *  @author Kevin Wayne
  */
 public final class BinaryStdOut {
-    private static BufferedOutputStream out;  // output stream (standard output)
-    private static int buffer;                // 8-bit buffer of bits to write
-    private static int n;                     // number of bits remaining in buffer
+    private static BitOutput out;             // bit writer over standard output
     private static boolean isInitialized;     // has BinaryStdOut been called for first time?
 
     // don't instantiate
@@ -40,67 +36,31 @@ public final class BinaryStdOut {
 
     // initialize BinaryStdOut
     private static void initialize() {
-        out = new BufferedOutputStream(System.out);
-        buffer = 0;
-        n = 0;
+        out = new BitOutput(System.out);
         isInitialized = true;
     }
 
    /**
-     * Writes the specified bit to standard output.
+     * Appends the low r bits of x (1 <= r <= 32) to standard output in one step.
      */
-    private static void writeBit(boolean bit) {
+    private static void writeBits(int x, int r) {
         if (!isInitialized) initialize();
+        out.write(x, r);
+    }
 
-        // add bit to buffer
-        buffer <<= 1;
-        if (bit) buffer |= 1;
-
-        // if buffer is full (8 bits), write out as a single byte
-        n++;
-        if (n == 8) clearBuffer();
+   /**
+     * Writes the specified bit to standard output.
+     */
+    private static void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
     } 
 
    /**
      * Writes the 8-bit byte to standard output.
      */
     private static void writeByte(int x) {
-        if (!isInitialized) initialize();
-
         assert x >= 0 && x < 256;
-
-        // optimized if byte-aligned
-        if (n == 0) {
-            try {
-                out.write(x);
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-            }
-            return;
-        }
-
-        // otherwise write one bit at a time
-        for (int i = 0; i < 8; i++) {
-            boolean bit = ((x >>> (8 - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
-    }
-
-    // write out any remaining bits in buffer to standard output, padding with 0s
-    private static void clearBuffer() {
-        if (!isInitialized) initialize();
-
-        if (n == 0) return;
-        if (n > 0) buffer <<= (8 - n);
-        try {
-            out.write(buffer);
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-        n = 0;
-        buffer = 0;
+        writeBits(x, 8);
     }
 
    /**
@@ -108,13 +68,8 @@ public final class BinaryStdOut {
      * is not a multiple of 8.
      */
     public static void flush() {
-        clearBuffer();
-        try {
-            out.flush();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (!isInitialized) initialize();
+        out.flush();
     }
 
    /**
@@ -122,14 +77,9 @@ public final class BinaryStdOut {
      * longer write bits to it.
      */
     public static void close() {
-        flush();
-        try {
-            out.close();
-            isInitialized = false;
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (!isInitialized) initialize();
+        out.close();
+        isInitialized = false;
     }
 
 
@@ -149,6 +99,17 @@ public final class BinaryStdOut {
         writeByte(x & 0xff);
     }
 
+   /**
+     * Writes the specified bytes to standard output.
+     * @param a the array of bytes to write.
+     * @param offset the index of the first byte to write.
+     * @param length the number of bytes to write.
+     */
+    public static void write(byte[] a, int offset, int length) {
+        if (!isInitialized) initialize();
+        out.write(a, offset, length);
+    }
+
    /**
      * Writes the 32-bit int to standard output.
      * @param x the {@code int} to write.
@@ -174,10 +135,7 @@ public final class BinaryStdOut {
         }
         if (r < 1 || r > 32)        throw new IllegalArgumentException("Illegal value for r = " + r);
         if (x < 0 || x >= (1 << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, r);
     }
 
 
@@ -248,10 +206,7 @@ public final class BinaryStdOut {
         }
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value for r = " + r);
         if (x >= (1 << r))   throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, r);
     }
 
    /**
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * BitInput - Bit reader over any {@link InputStream}, {@link ByteBuffer} or memory-mapped {@link FileChannel}. Bytes
+ * are fetched in large chunks and kept in a 64-bit accumulator, so a value of 1-32 bits comes out with one shift and
+ * mask. Each instance is independent, so separate jobs can read concurrently; a single instance is not thread-safe.
+ */
+public class BitInput
+{
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Largest region of a file mapped at once; bigger files are remapped window by window
+     */
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final InputStream stream;  // source, or null when reading from buffer
+    private ByteBuffer buffer;
+    private final FileChannel channel; // file buffer is mapped from, if any
+    private long mapped;               // bytes of channel mapped so far
+    private final long length;         // total input size, -1 if unknown
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int position;              // next unread byte in chunk
+    private int limit;                 // number of valid bytes in chunk
+    private boolean eof;
+
+    private long bits;                 // unread bits, right-aligned
+    private int n;                     // number of unread bits in bits
+
+    public BitInput(InputStream stream)
+    {
+        this.stream = stream;
+        this.buffer = null;
+        this.channel = null;
+        this.length = -1;
+    }
+
+    public BitInput(ByteBuffer buffer)
+    {
+        this.stream = null;
+        this.buffer = buffer;
+        this.channel = null;
+        this.length = buffer.remaining();
+    }
+
+    /**
+     * Read a whole file through read-only memory maps; the channel is closed by {@link #close()}
+     */
+    public BitInput(FileChannel channel) throws IOException
+    {
+        this.stream = null;
+        this.channel = channel;
+        this.length = channel.size();
+        mapNextWindow();
+    }
+
+    /**
+     * Total number of input bytes, or -1 for a stream of unknown length
+     */
+    public long length()
+    {
+        return length;
+    }
+
+    /**
+     * True if at least {@code r} more bits (at most 57) can be read; only refills when fewer are buffered
+     */
+    public boolean hasBits(int r)
+    {
+        if (n < r)
+        {
+            fill(r);
+        }
+        return n >= r;
+    }
+
+    /**
+     * True if {@code r} more bits (at most 57) can be read without waiting on the source stream: they are already
+     * buffered, or the stream has bytes available. Buffers and files never make a reader wait.
+     */
+    public boolean ready(int r)
+    {
+        if (stream == null || n + 8L * (limit - position) >= r)
+        {
+            return true;
+        }
+        try
+        {
+            return !eof && stream.available() > 0;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * True if no bits are left
+     */
+    public boolean isEmpty()
+    {
+        return !hasBits(1);
+    }
+
+    /**
+     * Read the next {@code r} bits as an int, most significant first
+     *
+     * @throws NoSuchElementException if fewer than {@code r} bits are left
+     * @throws IllegalArgumentException unless 1 <= r <= 32
+     */
+    public int readInt(int r)
+    {
+        if (r < 1 || r > 32)
+        {
+            throw new IllegalArgumentException("Illegal value of r = " + r);
+        }
+        if (n < r)
+        {
+            fill(r);
+            if (n < r)
+            {
+                throw new NoSuchElementException("Reading from empty input stream");
+            }
+        }
+        n -= r;
+        return (int) ((bits >>> n) & (0xffffffffL >>> (32 - r)));
+    }
+
+    /**
+     * Read up to {@code length} bytes into {@code a} starting at {@code offset}
+     *
+     * @return the number of bytes read, less than {@code length} only at the end of the input
+     */
+    public int read(byte[] a, int offset, int length)
+    {
+        int done = 0;
+
+        // Not byte-aligned, or bytes still buffered: take them from the accumulator
+        while (done < length && (n & 7) != 0 && hasBits(8))
+        {
+            a[offset + done++] = (byte) readInt(8);
+        }
+        while (done < length && n >= 8)
+        {
+            n -= 8;
+            a[offset + done++] = (byte) (bits >>> n);
+        }
+        if ((n & 7) != 0)
+        {
+            return done;
+        }
+
+        // Byte-aligned and accumulator empty: copy straight out of the chunk
+        while (done < length)
+        {
+            if (position == limit && (eof || !refill()))
+            {
+                break;
+            }
+            int k = Math.min(limit - position, length - done);
+            System.arraycopy(chunk, position, a, offset + done, k);
+            position += k;
+            done += k;
+        }
+        return done;
+    }
+
+    /**
+     * Read up to {@code length} bytes like {@link #read}, but read the source at most once: whatever is buffered, or
+     * else whatever one read of the source returns, so a slow stream is not waited on to fill the whole array
+     *
+     * @return the number of bytes read, 0 only at the end of the input
+     */
+    public int readSome(byte[] a, int offset, int length)
+    {
+        if (n < 8 && position == limit && !eof)
+        {
+            refill();
+        }
+        return read(a, offset, Math.min(length, n / 8 + limit - position));
+    }
+
+    /**
+     * Close the source stream
+     */
+    public void close()
+    {
+        if (stream != null || channel != null)
+        {
+            try
+            {
+                if (stream != null)
+                {
+                    stream.close();
+                }
+                else
+                {
+                    channel.close();
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Top up the accumulator to at least 57 bits, or as many as remain; the source is only read again while fewer than r
+    // bits are in hand, so a stream is not waited on for bits nobody asked for yet
+    private void fill(int r)
+    {
+        while (n <= 56)
+        {
+            if (position == limit && (n >= r || eof || !refill()))
+            {
+                return;
+            }
+            bits = (bits << 8) | (chunk[position++] & 0xff);
+            n += 8;
+        }
+    }
+
+    // Fetch the next chunk from the source; false at end of input
+    private boolean refill()
+    {
+        position = 0;
+        try
+        {
+            if (stream == null)
+            {
+                if (!buffer.hasRemaining() && channel != null && mapped < length)
+                {
+                    mapNextWindow();
+                }
+                limit = Math.min(buffer.remaining(), chunk.length);
+                buffer.get(chunk, 0, limit);
+            }
+            else
+            {
+                limit = Math.max(stream.read(chunk, 0, chunk.length), 0);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        if (limit == 0)
+        {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    // Map the next window of the file; a single mapping cannot exceed 2 GB
+    private void mapNextWindow() throws IOException
+    {
+        long size = Math.min(length - mapped, MAP_WINDOW);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapped, size);
+        mapped += size;
+    }
+}
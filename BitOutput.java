@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BitOutput - Bit writer over any {@link OutputStream}, {@link ByteBuffer} or {@link FileChannel}. Values of 1-32 bits
+ * are packed into a 64-bit accumulator in one step, and whole bytes are collected in a chunk array that is handed to
+ * the target in bulk. Each instance is independent, so separate jobs can write concurrently; a single instance is not
+ * thread-safe.
+ */
+public class BitOutput
+{
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final OutputStream stream;  // target, or null when writing to buffer
+    private final ByteBuffer buffer;
+    private final FileChannel channel;  // file buffer is drained to, if any
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int count;                  // number of bytes in chunk
+
+    private long bits;                  // bits waiting to be packed, right-aligned
+    private int n;                      // number of bits in bits
+
+    private long bitsWritten;
+
+    public BitOutput(OutputStream stream)
+    {
+        this.stream = stream;
+        this.buffer = null;
+        this.channel = null;
+    }
+
+    public BitOutput(ByteBuffer buffer)
+    {
+        this.stream = null;
+        this.buffer = buffer;
+        this.channel = null;
+    }
+
+    /**
+     * Write to a file through a direct buffer of {@code bufferSize} bytes; the channel is closed by {@link #close()}
+     */
+    public BitOutput(FileChannel channel, int bufferSize)
+    {
+        this.stream = null;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, CHUNK_SIZE));
+        this.channel = channel;
+    }
+
+    /**
+     * Write the low {@code r} bits of {@code x}, most significant first
+     *
+     * @throws IllegalArgumentException unless 1 <= r <= 32
+     */
+    public void write(int x, int r)
+    {
+        if (r < 1 || r > 32)
+        {
+            throw new IllegalArgumentException("Illegal value for r = " + r);
+        }
+
+        // Make room: after packing whole bytes fewer than 8 bits remain
+        if (n + r > 64)
+        {
+            packBytes();
+        }
+        bits = (bits << r) | (x & (0xffffffffL >>> (32 - r)));
+        n += r;
+        bitsWritten += r;
+    }
+
+    /**
+     * Write {@code length} bytes of {@code a} starting at {@code offset}
+     */
+    public void write(byte[] a, int offset, int length)
+    {
+        packBytes();
+        bitsWritten += 8L * length;
+
+        // Not byte-aligned: shift in one byte at a time
+        if (n != 0)
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                bits = (bits << 8) | (a[i] & 0xff);
+                n += 8;
+                packBytes();
+            }
+            return;
+        }
+
+        // Byte-aligned: copy straight into the chunk
+        while (length > 0)
+        {
+            int k = Math.min(length, chunk.length - count);
+            System.arraycopy(a, offset, chunk, count, k);
+            count += k;
+            offset += k;
+            length -= k;
+            if (count == chunk.length)
+            {
+                writeChunk();
+            }
+        }
+    }
+
+    /**
+     * Number of bits written so far, not counting padding
+     */
+    public long bitsWritten()
+    {
+        return bitsWritten;
+    }
+
+    /**
+     * Pad the last byte with 0s and push everything to the target
+     */
+    public void flush()
+    {
+        packBytes();
+        if (n > 0)
+        {
+            chunk[count++] = (byte) (bits << (8 - n));
+            bitsWritten += 8 - n;
+            n = 0;
+        }
+        bits = 0;
+        flushBytes();
+    }
+
+    /**
+     * Push every whole byte written so far to the target without padding; a partial last byte is kept back
+     */
+    public void flushBytes()
+    {
+        packBytes();
+        writeChunk();
+        try
+        {
+            if (stream != null)
+            {
+                stream.flush();
+            }
+            else if (channel != null)
+            {
+                drainBuffer();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flush, then close the target stream
+     */
+    public void close()
+    {
+        flush();
+        try
+        {
+            if (stream != null)
+            {
+                stream.close();
+            }
+            else if (channel != null)
+            {
+                channel.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Move every whole byte of the accumulator into the chunk
+    private void packBytes()
+    {
+        while (n >= 8)
+        {
+            n -= 8;
+            chunk[count++] = (byte) (bits >>> n);
+            if (count == chunk.length)
+            {
+                writeChunk();
+            }
+        }
+    }
+
+    // Hand the collected bytes to the target
+    private void writeChunk()
+    {
+        if (count == 0)
+        {
+            return;
+        }
+        try
+        {
+            if (stream != null)
+            {
+                stream.write(chunk, 0, count);
+            }
+            else
+            {
+                if (channel != null && buffer.remaining() < count)
+                {
+                    drainBuffer();
+                }
+                buffer.put(chunk, 0, count);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    // Write everything in the direct buffer to the file
+    private void drainBuffer() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,476 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * BlockCodec - Block-framed LZW container. The input is cut into fixed-size blocks and each block is coded on its own
+ * with a codebook freshly seeded from the alphabet, so blocks can be compressed and expanded on separate cores.
+ *
+ * <p>Layout after the usual header (whose policy byte carries {@link LZWTool#BLOCK_FRAMED}): the block size (32 bits),
+ * then per block its compressed length in bytes (32 bits), expanded length (32 bits) and the codeword width of its
+ * stop code (8 bits), followed by the block's code stream padded to a byte. A compressed length of 0 ends the blocks.
+ * A seekable file ({@link LZWTool#SEEKABLE}) then has a {@link BlockIndex} so a byte range can be expanded from the
+ * blocks that cover it alone.
+ */
+public class BlockCodec
+{
+    /**
+     * Block size used when --threads is given without --block-size
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+
+    /**
+     * Largest block size, so a block always fits in one array
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 30;
+
+    /**
+     * Bytes mapped to read the header of a seekable file: the fixed fields, the largest alphabet and the dictionary ID
+     * and hash
+     */
+    private static final int HEADER_MAP_SIZE = 5 + 0xffff + 8;
+
+    /**
+     * Parse a block size in bytes, with an optional K, M or G suffix
+     *
+     * @throws IllegalArgumentException if the size is not between 1 and {@link #MAX_BLOCK_SIZE}
+     */
+    public static int parseSize(String text)
+    {
+        long size = parseBytes(text);
+        if (size < 1 || size > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE + ": " + text);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Parse a number of bytes with an optional K, M or G suffix, saturating at {@link Long#MAX_VALUE}
+     *
+     * @throws NumberFormatException if the text is not a number
+     */
+    static long parseBytes(String text)
+    {
+        String digits = text.toUpperCase(Locale.ROOT);
+        int shift = 0;
+        if (digits.endsWith("K"))
+        {
+            shift = 10;
+        }
+        else if (digits.endsWith("M"))
+        {
+            shift = 20;
+        }
+        else if (digits.endsWith("G"))
+        {
+            shift = 30;
+        }
+        if (shift > 0)
+        {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        long value = Long.parseLong(digits);
+        if (Math.abs(value) > Long.MAX_VALUE >> shift)
+        {
+            return value < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return value << shift;
+    }
+
+    /**
+     * Compress {@code in} to {@code out} as independent blocks of {@code blockSize} bytes, coded by {@code threads}
+     * workers. Blocks are read ahead of the writer only as far as the workers can use them, and written in input
+     * order. The output is flushed but neither stream is closed.
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, BitInput in, BitOutput out,
+                                int threads, int blockSize)
+    {
+        compress(minW, maxW, policy, alphabet, in, out, threads, blockSize, false, null, false);
+    }
+
+    /**
+     * Compress as above; a {@code seekable} file also ends with an index of where every block starts, for
+     * {@link #expandRange}. Offsets in the index count from the first bit written to {@code out}. Every block is
+     * seeded from {@code dictionary} too, if it is not null, and sends bytes outside the alphabet as literals if
+     * {@code escapes} is set.
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, BitInput in, BitOutput out,
+                                int threads, int blockSize, boolean seekable, Dictionary dictionary, boolean escapes)
+    {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        int policyByte = Codebook.policyCode(policy) | (escapes ? LZWTool.ESCAPE : 0);
+
+        int flags = LZWTool.BLOCK_FRAMED | (seekable ? LZWTool.SEEKABLE : 0);
+        LZWTool.writeHeader(out, minW, maxW, policyByte | flags, alphabet, dictionary);
+        out.write(blockSize, 32);
+        BlockIndex index = seekable ? new BlockIndex() : null;
+
+        // One codebook per worker, reseeded for every block instead of reallocated
+        ThreadLocal<EncoderCodebook> codebooks = ThreadLocal.withInitial(
+                () -> LZWTool.newEncoder(minW, maxW, policyByte, alphabet, dictionary));
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            ArrayDeque<ForkJoinTask<Frame>> pending = new ArrayDeque<>();
+            for (int blocks = 0; ; blocks++)
+            {
+                byte[] block = new byte[blockSize];
+                int length = in.read(block, 0, blockSize);
+                if (length == 0)
+                {
+                    break;
+                }
+                int blockIndex = blocks;
+                pending.add(pool.submit(() -> encodeBlock(codebooks.get(), block, length, blockIndex)));
+
+                // Keep every worker busy, plus one block each waiting, before writing the oldest
+                if (pending.size() >= 2 * threads)
+                {
+                    writeFrame(out, pending.remove().join(), index);
+                }
+            }
+            while (!pending.isEmpty())
+            {
+                writeFrame(out, pending.remove().join(), index);
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        out.write(0, 32);
+        if (index != null)
+        {
+            index.write(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Expand the blocks that follow a block-framed header. With more than one thread, blocks are decoded by
+     * {@code threads} workers while this thread reads ahead and writes the results strictly in order; at most
+     * {@code maxInFlight} blocks are read but not yet written, which bounds memory to that many blocks. The output is
+     * flushed but neither stream is closed.
+     *
+     * @throws RuntimeException if a block does not match its frame
+     */
+    static void expand(LZWTool.HeaderInfo info, BitInput in, BitOutput out, int threads, int maxInFlight)
+    {
+        int blockSize = in.readInt(32);
+
+        if (threads <= 1)
+        {
+            // Decode straight into the output, no copies
+            DecoderCodebook codebook = LZWTool.newDecoder(info);
+            for (int index = 0; ; index++)
+            {
+                Frame frame = readFrame(in, blockSize, index);
+                if (frame == null)
+                {
+                    break;
+                }
+                decodeBlock(codebook, frame, index, out);
+            }
+            out.flush();
+            return;
+        }
+
+        ThreadLocal<DecoderCodebook> codebooks = ThreadLocal.withInitial(() -> LZWTool.newDecoder(info));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+            for (int index = 0; ; index++)
+            {
+                Frame frame = readFrame(in, blockSize, index);
+                if (frame == null)
+                {
+                    break;
+                }
+                int blockIndex = index;
+                pending.add(pool.submit(() -> decodeBlock(codebooks.get(), frame, blockIndex)));
+
+                if (pending.size() >= Math.max(maxInFlight, 1))
+                {
+                    byte[] block = pending.remove().join();
+                    out.write(block, 0, block.length);
+                }
+            }
+            while (!pending.isEmpty())
+            {
+                byte[] block = pending.remove().join();
+                out.write(block, 0, block.length);
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        out.flush();
+    }
+
+    /**
+     * Expand only bytes {@code [start, start + length)} of a seekable file, decoding just the blocks that cover them.
+     * The range is cut short at the end of the data. The output is flushed but neither channel nor output is closed.
+     *
+     * @throws IllegalArgumentException if the file was not compressed as seekable
+     */
+    public static void expandRange(FileChannel channel, long start, long length, Dictionary dictionary,
+                                   BitOutput out) throws IOException
+    {
+        LZWTool.HeaderInfo info = LZWTool.readHeader(new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(channel.size(), HEADER_MAP_SIZE))));
+        if ((info.flags & LZWTool.SEEKABLE) == 0)
+        {
+            throw new IllegalArgumentException("File was not compressed with --seekable");
+        }
+        LZWTool.useDictionary(info, dictionary);
+        BlockIndex index = BlockIndex.read(channel);
+        DecoderCodebook codebook = LZWTool.newDecoder(info);
+
+        long end = start + length;
+        for (int block = index.find(start); block < index.count && index.expandedOffsets[block] < end; block++)
+        {
+            long frameStart = index.frameBits[block] / 8;
+            long frameEnd = block + 1 < index.count ? index.frameBits[block + 1] / 8 : channel.size();
+            BitInput in = new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, frameStart, frameEnd - frameStart));
+            Frame frame = readFrame(in, MAX_BLOCK_SIZE, block);
+
+            byte[] data = decodeBlock(codebook, frame, block);
+            long blockStart = index.expandedOffsets[block];
+            int from = (int) Math.max(start - blockStart, 0);
+            int to = (int) Math.min(end - blockStart, data.length);
+            if (to > from)
+            {
+                out.write(data, from, to - from);
+            }
+        }
+        out.flush();
+    }
+
+    // Read the next frame and its code stream, or null at the end marker
+    private static Frame readFrame(BitInput in, int blockSize, int index)
+    {
+        int compressedLength = in.readInt(32);
+        if (compressedLength == 0)
+        {
+            return null;
+        }
+        int length = in.readInt(32);
+        int width = in.readInt(8);
+        if (compressedLength < 0 || length < 0 || length > blockSize)
+        {
+            throw new RuntimeException("Corrupt block " + index);
+        }
+
+        byte[] codes = new byte[compressedLength];
+        if (in.read(codes, 0, compressedLength) < compressedLength)
+        {
+            throw new RuntimeException("Truncated block " + index);
+        }
+        return new Frame(codes, length, width);
+    }
+
+    // Decode one block into an array of exactly its expanded length
+    private static byte[] decodeBlock(DecoderCodebook codebook, Frame frame, int index)
+    {
+        byte[] block = new byte[frame.length];
+        try
+        {
+            BitOutput out = new BitOutput(ByteBuffer.wrap(block));
+            decodeBlock(codebook, frame, index, out);
+            out.flush();
+        }
+        catch (BufferOverflowException e)
+        {
+            throw new RuntimeException("Corrupt block " + index);
+        }
+        return block;
+    }
+
+    // Decode one block from a reseeded codebook and check it against its frame
+    private static void decodeBlock(DecoderCodebook codebook, Frame frame, int index, BitOutput out)
+    {
+        LZWEvents.Block event = new LZWEvents.Block();
+        event.begin();
+        codebook.restart();
+        long start = out.bitsWritten();
+        int stopWidth = LZWTool.decode(codebook, new BitInput(ByteBuffer.wrap(frame.codes)), out);
+        if (stopWidth != frame.width || out.bitsWritten() - start != 8L * frame.length)
+        {
+            throw new RuntimeException("Corrupt block " + index);
+        }
+        commit(event, "decode", index, frame);
+    }
+
+    // Code one block into a byte-aligned stream of its own
+    private static Frame encodeBlock(EncoderCodebook codebook, byte[] block, int length, int index)
+    {
+        LZWEvents.Block event = new LZWEvents.Block();
+        event.begin();
+        codebook.restart();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(length / 2, 64));
+        BitOutput codes = new BitOutput(bytes);
+        int width = LZWTool.encode(codebook, new BitInput(ByteBuffer.wrap(block, 0, length)), codes);
+        codes.flush();
+
+        // Without escapes, bytes outside the alphabet are skipped, so the block expands to only the bytes that have a code
+        int expanded = codebook.escapes() ? length : 0;
+        for (int i = 0; i < length && !codebook.escapes(); i++)
+        {
+            if (codebook.root(block[i] & 0xff) >= 0)
+            {
+                expanded++;
+            }
+        }
+        Frame frame = new Frame(bytes.toByteArray(), expanded, width);
+        commit(event, "encode", index, frame);
+        return frame;
+    }
+
+    // Finish the JFR event of a block, if it is being recorded
+    private static void commit(LZWEvents.Block event, String operation, int index, Frame frame)
+    {
+        if (event.shouldCommit())
+        {
+            event.operation = operation;
+            event.index = index;
+            event.expandedBytes = frame.length;
+            event.compressedBytes = frame.codes.length;
+            event.commit();
+        }
+    }
+
+    private static void writeFrame(BitOutput out, Frame frame, BlockIndex index)
+    {
+        if (index != null)
+        {
+            index.add(out.bitsWritten(), frame.length);
+        }
+        out.write(frame.codes.length, 32);
+        out.write(frame.length, 32);
+        out.write(frame.width, 8);
+        out.write(frame.codes, 0, frame.codes.length);
+    }
+
+    /**
+     * Where each block of a seekable file starts: its offset in the expanded data and the bit offset of its frame.
+     * Written after the end marker as the block count and the offset pairs, followed by the byte offset of the index
+     * itself in the last 8 bytes of the file.
+     */
+    private static class BlockIndex
+    {
+        long[] expandedOffsets = new long[16];
+
+        long[] frameBits = new long[16];
+
+        int count;
+
+        long expanded;      // expanded bytes of the blocks added so far
+
+        void add(long frameBit, int length)
+        {
+            if (count == frameBits.length)
+            {
+                expandedOffsets = Arrays.copyOf(expandedOffsets, 2 * count);
+                frameBits = Arrays.copyOf(frameBits, 2 * count);
+            }
+            expandedOffsets[count] = expanded;
+            frameBits[count] = frameBit;
+            count++;
+            expanded += length;
+        }
+
+        // Block holding expanded byte offset, or count if it is past the end
+        int find(long offset)
+        {
+            int i = Arrays.binarySearch(expandedOffsets, 0, count, offset);
+            return i >= 0 ? i : Math.max(-i - 2, 0);
+        }
+
+        void write(BitOutput out)
+        {
+            long indexOffset = out.bitsWritten() / 8;
+            out.write(count, 32);
+            for (int i = 0; i < count; i++)
+            {
+                writeLong(out, expandedOffsets[i]);
+                writeLong(out, frameBits[i]);
+            }
+            writeLong(out, indexOffset);
+        }
+
+        static BlockIndex read(FileChannel channel) throws IOException
+        {
+            long size = channel.size();
+            long indexOffset = size < 8 ? -1
+                    : readLong(new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8)));
+            if (indexOffset < 0 || indexOffset > size - 12)
+            {
+                throw new IOException("Corrupt block index");
+            }
+
+            BitInput in = new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, size - 8 - indexOffset));
+            BlockIndex index = new BlockIndex();
+            int count = in.readInt(32);
+            if (count < 0 || 16L * count != size - 12 - indexOffset)
+            {
+                throw new IOException("Corrupt block index");
+            }
+            index.expandedOffsets = new long[count];
+            index.frameBits = new long[count];
+            for (int i = 0; i < count; i++)
+            {
+                index.expandedOffsets[i] = readLong(in);
+                index.frameBits[i] = readLong(in);
+            }
+            index.count = count;
+            return index;
+        }
+    }
+
+    private static void writeLong(BitOutput out, long x)
+    {
+        out.write((int) (x >>> 32), 32);
+        out.write((int) x, 32);
+    }
+
+    private static long readLong(BitInput in)
+    {
+        long high = in.readInt(32) & 0xffffffffL;
+        return (high << 32) | (in.readInt(32) & 0xffffffffL);
+    }
+
+    /**
+     * One compressed block and the metadata stored in front of it
+     */
+    private static class Frame
+    {
+        final byte[] codes;
+
+        final int length;
+
+        final int width;
+
+        Frame(byte[] codes, int length, int width)
+        {
+            this.codes = codes;
+            this.length = length;
+            this.width = width;
+        }
+    }
+}
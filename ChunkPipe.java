@@ -0,0 +1,252 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ChunkPipe - Bounded lock-free hand-off of byte chunks from one producer thread to one consumer thread. The chunks
+ * live in a preallocated ring: the producer fills the slot at the tail and publishes it, the consumer reads the slot at
+ * the head and releases it, so nothing is allocated per chunk and a full ring makes the producer wait (backpressure).
+ * Only the producer writes the tail and only the consumer writes the head, so two volatile counters are all the
+ * synchronization needed.
+ */
+public class ChunkPipe
+{
+    private static final int SPINS = 128;
+
+    private static final long PARK_NANOS = 20_000;
+
+    private final byte[][] chunks;
+    private final int[] lengths;     // bytes in each published chunk, -1 for end of stream
+    private final int mask;
+
+    private volatile long head;      // next chunk the consumer takes
+    private volatile long tail;      // next chunk the producer fills
+    private volatile Throwable failure;
+
+    /**
+     * @param chunkCount number of chunks in the ring, rounded up to a power of two
+     * @param chunkSize  bytes per chunk
+     */
+    public ChunkPipe(int chunkCount, int chunkSize)
+    {
+        int size = Integer.highestOneBit(Math.max(chunkCount, 1) * 2 - 1);
+        chunks = new byte[size][chunkSize];
+        lengths = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Producer: the chunk to fill next, waiting while the ring is full
+     */
+    public byte[] claim()
+    {
+        for (int attempt = 0; tail - head == chunks.length; attempt++)
+        {
+            backOff(attempt);
+        }
+        return chunks[(int) tail & mask];
+    }
+
+    /**
+     * Producer: hand the claimed chunk, holding {@code length} bytes, to the consumer
+     */
+    public void publish(int length)
+    {
+        lengths[(int) tail & mask] = length;
+        tail = tail + 1;
+    }
+
+    /**
+     * Producer: signal the end of the stream
+     */
+    public void close()
+    {
+        claim();
+        publish(-1);
+    }
+
+    /**
+     * Consumer: wait for the next chunk and return its length, or -1 at the end of the stream
+     */
+    public int take()
+    {
+        for (int attempt = 0; head == tail; attempt++)
+        {
+            backOff(attempt);
+        }
+        return lengths[(int) head & mask];
+    }
+
+    /**
+     * Consumer: the chunk returned by the last {@link #take()}
+     */
+    public byte[] current()
+    {
+        return chunks[(int) head & mask];
+    }
+
+    /**
+     * Consumer: give the current chunk back to the producer
+     */
+    public void release()
+    {
+        head = head + 1;
+    }
+
+    /**
+     * Either side: record that a stage failed, so the other side stops waiting and fails too
+     */
+    public void fail(Throwable cause)
+    {
+        if (failure == null)
+        {
+            failure = cause;
+        }
+    }
+
+    /**
+     * The failure recorded by {@link #fail}, or null
+     */
+    public Throwable failure()
+    {
+        return failure;
+    }
+
+    /**
+     * Producer end as a stream; {@code close()} ends the stream for the consumer
+     */
+    public OutputStream output()
+    {
+        return new Output();
+    }
+
+    /**
+     * Consumer end as a stream
+     */
+    public InputStream input()
+    {
+        return new Input();
+    }
+
+    // Spin briefly, then yield, then park: waits are short when both sides keep up
+    private void backOff(int attempt)
+    {
+        if (failure != null)
+        {
+            throw new IllegalStateException("Pipeline stage failed", failure);
+        }
+        if (attempt < SPINS)
+        {
+            Thread.onSpinWait();
+        }
+        else if (attempt < 2 * SPINS)
+        {
+            Thread.yield();
+        }
+        else
+        {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private class Output extends OutputStream
+    {
+        private byte[] chunk;  // claimed chunk, or null
+        private int count;
+
+        @Override
+        public void write(int b)
+        {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length)
+        {
+            while (length > 0)
+            {
+                if (chunk == null)
+                {
+                    chunk = claim();
+                    count = 0;
+                }
+                int k = Math.min(length, chunk.length - count);
+                System.arraycopy(b, offset, chunk, count, k);
+                count += k;
+                offset += k;
+                length -= k;
+                if (count == chunk.length)
+                {
+                    publish(count);
+                    chunk = null;
+                }
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+            if (chunk != null && count > 0)
+            {
+                publish(count);
+                chunk = null;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            flush();
+            ChunkPipe.this.close();
+        }
+    }
+
+    private class Input extends InputStream
+    {
+        private int position;
+        private int limit = -1;  // length of the taken chunk, -1 if none is held
+        private boolean ended;
+
+        @Override
+        public int read()
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            while (limit < 0)
+            {
+                if (ended)
+                {
+                    return -1;
+                }
+                limit = take();
+                position = 0;
+                if (limit <= 0)
+                {
+                    // End marker, or an empty chunk
+                    ended = limit < 0;
+                    limit = -1;
+                    release();
+                }
+            }
+
+            int k = Math.min(length, limit - position);
+            System.arraycopy(current(), position, b, offset, k);
+            position += k;
+            if (position == limit)
+            {
+                limit = -1;
+                release();
+            }
+            return k;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+import java.util.List;
+
+/**
+ * Codebook - Code slot bookkeeping shared by the LZW encoder and decoder. Every entry is stored as a (prefix code,
+ * suffix byte) pair in primitive arrays, and both sides call {@link #reserve(int)} at the same point of the code stream
+ * so codeword width, resets and evictions stay in sync.
+ */
+public abstract class Codebook
+{
+    /**
+     * Policy codes, as stored in the compressed file header
+     */
+    public static final int FREEZE = 0;
+
+    public static final int RESET = 1;
+
+    public static final int LRU = 2;
+
+    public static final int LFU = 3;
+
+    public static final int ADAPTIVE = 4;
+
+    /**
+     * Largest supported maxW; every per-code table holds 2^maxW entries
+     */
+    public static final int MAX_WIDTH = 24;
+
+    /**
+     * Prefix of seed symbols, and of entries that can never be matched
+     */
+    static final int NO_PREFIX = -1;
+
+    final int minW;
+
+    final int maxW;
+
+    final int policy;
+
+    final byte[] symbols;   // last byte of each seed code
+
+    final int seedSize;     // number of seed codes actually assigned, the escape code included
+
+    final int escapeCode;   // seed code that announces a literal byte, -1 without escapes
+
+    final int stopCode;     // 2^maxW - 1, never assigned to an entry
+
+    final int entryLimit;   // lowest code never assigned: stopCode, or the clear code under ADAPTIVE
+
+    final int[] prefix;     // prefix code of each entry
+    final byte[] suffix;    // last byte of each entry
+    final int[] children;   // number of entries whose prefix is this code
+
+    // Tracking for eviction policies
+    final EvictionTracker tracker;
+
+    int width;              // current codeword width W
+    int nextCode;           // lowest code that has never been assigned
+
+    // Counters of the current stream for --stats, handed over and zeroed by recordStats()
+    long statCodes;         // codes emitted (encoder) or decoded (decoder), the stop and clear codes not included
+    long statBytes;         // input bytes those codes stand for
+    int statWidthIncreases;
+    int statResets;
+    long statEvictions;
+
+    Codebook(int minW, int maxW, int policy, byte[] symbols)
+    {
+        this(minW, maxW, policy, symbols, null);
+    }
+
+    /**
+     * @param seedPrefixes prefix code of each seed code, for seeds that are multi-byte phrases (see
+     *                     {@link Dictionary#seeds}); null if every seed is a single byte
+     */
+    Codebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes)
+    {
+        this(minW, maxW, policy, symbols, seedPrefixes, false);
+    }
+
+    /**
+     * @param escapes reserve the code after the seeds as the escape code, so bytes outside the alphabet can be sent
+     *                as literals
+     */
+    Codebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes, boolean escapes)
+    {
+        if (minW < 1 || maxW > MAX_WIDTH || minW > maxW)
+        {
+            throw new IllegalArgumentException("Codeword widths must satisfy 1 <= minW <= maxW <= " + MAX_WIDTH);
+        }
+        this.minW = minW;
+        this.maxW = maxW;
+        this.policy = policy;
+        this.symbols = symbols;
+        this.stopCode = (1 << maxW) - 1;
+        this.entryLimit = policy == ADAPTIVE ? stopCode - 1 : stopCode;
+        int symbolCount = Math.min(symbols.length, entryLimit);
+        if (escapes && symbolCount == entryLimit)
+        {
+            throw new IllegalArgumentException("maxW leaves no code for escapes after the alphabet");
+        }
+        this.escapeCode = escapes ? symbolCount : -1;
+        this.seedSize = escapes ? symbolCount + 1 : symbolCount;
+
+        int size = 1 << maxW;
+        prefix = new int[size];
+        suffix = new byte[size];
+        children = new int[size];
+        if (policy == LRU)
+        {
+            tracker = new LRUList(size);
+        }
+        else if (policy == LFU)
+        {
+            tracker = new LFUBuckets(size);
+        }
+        else
+        {
+            tracker = null;
+        }
+
+        for (int code = 0; code < symbolCount; code++)
+        {
+            prefix[code] = seedPrefixes == null ? NO_PREFIX : seedPrefixes[code];
+            suffix[code] = symbols[code];
+        }
+        if (escapes)
+        {
+            prefix[escapeCode] = NO_PREFIX;
+        }
+    }
+
+    /**
+     * Map a policy name to its header code
+     */
+    public static int policyCode(String policy)
+    {
+        switch (policy)
+        {
+            case "freeze":
+                return FREEZE;
+            case "reset":
+                return RESET;
+            case "lru":
+                return LRU;
+            case "lfu":
+                return LFU;
+            case "adaptive":
+                return ADAPTIVE;
+            default:
+                throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+    }
+
+    /**
+     * Map a header policy code back to its name
+     */
+    public static String policyName(int policyCode)
+    {
+        switch (policyCode)
+        {
+            case FREEZE:
+                return "freeze";
+            case RESET:
+                return "reset";
+            case LRU:
+                return "lru";
+            case LFU:
+                return "lfu";
+            case ADAPTIVE:
+                return "adaptive";
+            default:
+                throw new IllegalArgumentException("Unknown policy code: " + policyCode);
+        }
+    }
+
+    /**
+     * Seed bytes of an alphabet; only the first character of each symbol is kept, as in the header
+     */
+    public static byte[] seedSymbols(List<String> alphabet)
+    {
+        byte[] symbols = new byte[alphabet.size()];
+        for (int i = 0; i < symbols.length; i++)
+        {
+            symbols[i] = (byte) alphabet.get(i).charAt(0);
+        }
+        return symbols;
+    }
+
+    /**
+     * Drop every learned entry and go back to the seed alphabet at width minW
+     */
+    void seed()
+    {
+        clearEntries();
+        if (tracker != null)
+        {
+            tracker.clear();
+        }
+        for (int code = 0; code < seedSize; code++)
+        {
+            children[code] = 0;
+        }
+        nextCode = seedSize;
+        width = minW;
+
+        // Seed codes must fit below the all-ones stop code of the starting width
+        while (nextCode >= (1 << width) && width < maxW)
+        {
+            width++;
+        }
+    }
+
+    /**
+     * Go back to the seeds in the middle of a stream, for {@code cause}; counted for {@code --stats} and JFR
+     */
+    void reseed(String cause)
+    {
+        LZWEvents.CodebookReset event = new LZWEvents.CodebookReset();
+        event.begin();
+        int entries = nextCode;
+        int oldWidth = width;
+        seed();
+        statResets++;
+        if (event.shouldCommit())
+        {
+            event.codebook = getClass().getSimpleName();
+            event.policy = policyName(policy);
+            event.cause = cause;
+            event.entries = entries;
+            event.width = oldWidth;
+            event.commit();
+        }
+    }
+
+    /**
+     * Start a new code stream with this codebook, as if freshly built
+     */
+    void restart()
+    {
+        seed();
+    }
+
+    /**
+     * All-ones code of the current width, which marks the end of the code stream
+     */
+    int endCode()
+    {
+        return (1 << width) - 1;
+    }
+
+    /**
+     * True if bytes outside the alphabet are sent as literals instead of skipped
+     */
+    boolean escapes()
+    {
+        return escapeCode >= 0;
+    }
+
+    /**
+     * Code the adaptive policy writes to clear the codebook on both sides. It is only written once the codebook is
+     * full, so always at width maxW, and no entry ever has it.
+     */
+    int clearCode()
+    {
+        return stopCode - 1;
+    }
+
+    /**
+     * Record that {@code code} was just emitted (encoder) or read (decoder). Its phrase was matched through every one
+     * of its prefixes, so those are used too, down to the seed it starts from.
+     */
+    void touch(int code)
+    {
+        if (tracker == null)
+        {
+            return;
+        }
+        for (; code >= seedSize; code = prefix[code])
+        {
+            tracker.touch(code);
+        }
+    }
+
+    /**
+     * Claim the code for the entry that extends {@code prefixCode} by one byte. The width grows before the code is
+     * handed out; once the codebook is full the policy decides whether to reset, evict or add nothing. The suffix byte
+     * is filled in by the caller.
+     *
+     * @return the claimed code, or -1 if no entry is added
+     */
+    int reserve(int prefixCode)
+    {
+        if (nextCode >= stopCode && policy == RESET)
+        {
+            reseed("reset");
+            if (prefixCode >= seedSize)
+            {
+                // The prefix belonged to the discarded codebook: the code is still used up, but never matched
+                prefixCode = NO_PREFIX;
+            }
+        }
+
+        int slot;
+        if (nextCode < entryLimit)
+        {
+            // Increase width if needed BEFORE adding the new code
+            if (nextCode == (1 << width) && width < maxW)
+            {
+                width++;
+                statWidthIncreases++;
+                LZWEvents.WidthChange event = new LZWEvents.WidthChange();
+                if (event.shouldCommit())
+                {
+                    event.codebook = getClass().getSimpleName();
+                    event.width = width;
+                    event.nextCode = nextCode;
+                    event.commit();
+                }
+            }
+            slot = nextCode++;
+        }
+        else if (policy == LRU || policy == LFU)
+        {
+            // Never evict the new entry's own prefix
+            LZWEvents.Eviction event = new LZWEvents.Eviction();
+            event.begin();
+            slot = tracker.victim(prefixCode);
+            if (slot < 0)
+            {
+                return -1;
+            }
+            evict(slot);
+            if (event.shouldCommit())
+            {
+                event.codebook = getClass().getSimpleName();
+                event.policy = policyName(policy);
+                event.victim = slot;
+                event.commit();
+            }
+        }
+        else
+        {
+            // freeze - do nothing
+            return -1;
+        }
+
+        prefix[slot] = prefixCode;
+        children[slot] = 0;
+        if (prefixCode != NO_PREFIX && children[prefixCode]++ == 0 && tracker != null)
+        {
+            // The prefix is no longer a leaf
+            tracker.remove(prefixCode);
+        }
+        if (tracker != null)
+        {
+            tracker.add(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Release {@code code} so its slot can be reused; a prefix left without extensions becomes evictable again
+     */
+    private void evict(int code)
+    {
+        statEvictions++;
+        forget(code);
+        tracker.remove(code);
+        int parent = prefix[code];
+        if (parent != NO_PREFIX && --children[parent] == 0 && parent >= seedSize)
+        {
+            tracker.restore(parent);
+        }
+    }
+
+    /**
+     * Add the counters of the stream just ended to the {@code --stats} report, if one is active, and zero them for the
+     * next stream
+     */
+    void recordStats()
+    {
+        LZWStats stats = LZWStats.active;
+        if (stats != null)
+        {
+            stats.add(statCodes, statBytes, statWidthIncreases, statResets, statEvictions);
+        }
+        statCodes = 0;
+        statBytes = 0;
+        statWidthIncreases = 0;
+        statResets = 0;
+        statEvictions = 0;
+    }
+
+    /**
+     * Remove {@code code} from any lookup structure before its slot is reused
+     */
+    abstract void forget(int code);
+
+    /**
+     * Remove every learned entry from any lookup structure
+     */
+    abstract void clearEntries();
+}
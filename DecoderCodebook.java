@@ -0,0 +1,259 @@
+/**
+ * DecoderCodebook - Expansion side of the codebook. Each entry is only its prefix code, suffix byte and phrase length,
+ * and a phrase is produced by walking the prefix chain backwards straight into the caller's output buffer, so decoding
+ * a code allocates nothing and memory does not grow with the total length of the phrases.
+ */
+public class DecoderCodebook extends Codebook
+{
+    private final int[] length;  // phrase length of each entry, 0 for entries that can never be emitted
+
+    // Entry added right after a reset whose prefix was discarded; older encoders could still emit it
+    private int orphanCode = -1;
+    private byte[] orphanPrefix = new byte[0];
+    private int orphanPrefixLength;
+
+    private byte lastFirst;      // first byte of the most recently decoded phrase
+
+    /**
+     * Results of {@link #next} that are not a phrase length
+     */
+    public static final int STOP = -1;
+
+    public static final int END = -2;
+
+    // Position in the code stream
+    private int lastCode = -1;   // most recently decoded code, -1 at the start of a stream, LITERAL after a literal
+                                 // byte that got no entry
+    private int pendingCode;     // code read by next() and not yet decoded
+    private int pendingSlot;     // entry reserved for it
+    private int pendingLiteral;  // byte that followed the escape code, if pendingCode is the escape code
+
+    private static final int LITERAL = -2;
+
+    public DecoderCodebook(int minW, int maxW, int policy, byte[] symbols)
+    {
+        this(minW, maxW, policy, symbols, null);
+    }
+
+    /**
+     * Codebook seeded with multi-byte phrases as well, see {@link Dictionary#seeds}
+     */
+    public DecoderCodebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes)
+    {
+        this(minW, maxW, policy, symbols, seedPrefixes, false);
+    }
+
+    /**
+     * Codebook for a stream that sends bytes outside the alphabet as literals if {@code escapes} is set
+     */
+    public DecoderCodebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes, boolean escapes)
+    {
+        super(minW, maxW, policy, symbols, seedPrefixes, escapes);
+        length = new int[1 << maxW];
+        for (int code = 0; code < seedSize; code++)
+        {
+            // A seed phrase always comes after the seed it extends
+            length[code] = prefix[code] == NO_PREFIX ? 1 : length[prefix[code]] + 1;
+        }
+        seed();
+    }
+
+    /**
+     * Claim the slot for the entry that follows {@code prevCode}. The encoder added that entry before writing the next
+     * code, so this runs before the next code is read; its suffix byte is filled in by {@link #decode}.
+     */
+    @Override
+    int reserve(int prevCode)
+    {
+        boolean orphaned = policy == RESET && nextCode >= stopCode && prevCode >= seedSize;
+        if (orphaned)
+        {
+            // Keep the bytes of the prefix the reset is about to discard
+            orphanPrefixLength = length[prevCode];
+            if (orphanPrefix.length < orphanPrefixLength)
+            {
+                orphanPrefix = new byte[orphanPrefixLength];
+            }
+            writeBackwards(prevCode, orphanPrefix, orphanPrefixLength);
+        }
+
+        int slot = super.reserve(prevCode);
+        if (orphaned && slot >= 0)
+        {
+            orphanCode = slot;
+            length[slot] = orphanPrefixLength + 1;
+        }
+        else if (slot >= 0)
+        {
+            length[slot] = prevCode == NO_PREFIX ? 1 : length[prevCode] + 1;
+        }
+        return slot;
+    }
+
+    /**
+     * Read the next code of the stream from {@code in}. The slot the encoder filled after the previous code is claimed
+     * first, so width and evictions match the encoder's state when it wrote this code.
+     *
+     * @return the length of the code's phrase, which {@link #decodeNext} then writes; {@link #STOP} at the stop code;
+     * or {@link #END} if the input ends first
+     */
+    public int next(BitInput in)
+    {
+        pendingSlot = lastCode < 0 ? -1 : reserve(lastCode);
+        if (!in.hasBits(width))
+        {
+            return ended(END);
+        }
+        int code = in.readInt(width);
+        if (code == endCode())
+        {
+            return ended(STOP);
+        }
+        if (code == escapeCode)
+        {
+            if (!in.hasBits(8))
+            {
+                return ended(END);
+            }
+            pendingCode = code;
+            pendingLiteral = in.readInt(8);
+            return 1;
+        }
+        if (lastCode == -1 && code >= seedSize)
+        {
+            // No learned code can open a stream
+            return ended(END);
+        }
+        if (policy == ADAPTIVE && code == clearCode())
+        {
+            // The encoder dropped its codebook: carry on as at the start of a stream
+            reseed("clear");
+            lastCode = -1;
+            return next(in);
+        }
+        pendingCode = code;
+        return phraseLength(code, pendingSlot);
+    }
+
+    /**
+     * Write the phrase of the code read by {@link #next} into {@code out} at {@code pos}; the caller makes room for
+     * the length {@code next} returned
+     *
+     * @return the position just past the phrase
+     */
+    public int decodeNext(byte[] out, int pos)
+    {
+        if (pendingCode == escapeCode)
+        {
+            return decodeLiteral(out, pos);
+        }
+        int end = decode(pendingCode, pendingSlot, out, pos);
+        touch(pendingCode);
+        lastCode = pendingCode;
+        statCodes++;
+        statBytes += end - pos;
+        return end;
+    }
+
+    // The stream is over: hand its counters to --stats
+    private int ended(int status)
+    {
+        recordStats();
+        return status;
+    }
+
+    // Write the literal byte that followed the escape code and learn it as a one-byte entry, as the encoder did
+    private int decodeLiteral(byte[] out, int pos)
+    {
+        lastFirst = (byte) pendingLiteral;
+        out[pos] = lastFirst;
+        if (pendingSlot >= 0)
+        {
+            suffix[pendingSlot] = lastFirst;
+        }
+        int slot = reserve(NO_PREFIX);
+        if (slot >= 0)
+        {
+            suffix[slot] = lastFirst;
+        }
+        lastCode = slot >= 0 ? slot : LITERAL;
+        statCodes++;
+        statBytes++;
+        return pos + 1;
+    }
+
+    /**
+     * Length of the phrase for {@code code}, where {@code slot} is the entry reserved but not yet completed (or -1)
+     *
+     * @throws RuntimeException if the code does not name an entry
+     */
+    public int phraseLength(int code, int slot)
+    {
+        if (code < 0 || code >= nextCode || (code >= seedSize && length[code] == 0))
+        {
+            throw new RuntimeException("Invalid code: " + code);
+        }
+        return length[code];
+    }
+
+    /**
+     * Write the phrase for {@code code} into {@code out} at {@code pos} and complete the pending {@code slot} with the
+     * phrase's first byte. The caller makes room for {@link #phraseLength} bytes first.
+     *
+     * @return the position just past the phrase
+     */
+    public int decode(int code, int slot, byte[] out, int pos)
+    {
+        int end = pos + length[code];
+        if (code == slot)
+        {
+            // Special case: code not yet complete, its phrase is the previous phrase plus that phrase's first byte
+            suffix[slot] = lastFirst;
+        }
+        writeBackwards(code, out, end);
+
+        lastFirst = out[pos];
+        if (slot >= 0)
+        {
+            suffix[slot] = lastFirst;
+        }
+        return end;
+    }
+
+    // Write the phrase for code so that it ends just before out[end]
+    private void writeBackwards(int code, byte[] out, int end)
+    {
+        int start = end - length[code];
+        for (int i = end - 1; i >= start; i--)
+        {
+            if (code == orphanCode)
+            {
+                out[i] = suffix[code];
+                System.arraycopy(orphanPrefix, 0, out, start, orphanPrefixLength);
+                return;
+            }
+            out[i] = suffix[code];
+            code = prefix[code];
+        }
+    }
+
+    @Override
+    void restart()
+    {
+        super.restart();
+        lastCode = -1;
+    }
+
+    @Override
+    void forget(int code)
+    {
+        length[code] = 0;
+    }
+
+    @Override
+    void clearEntries()
+    {
+        // Learned codes are only reachable below nextCode, which seed() lowers back to the seed size
+        orphanCode = -1;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Dictionary - Pre-trained multi-byte phrases that seed the codebook next to the alphabet, so a stream starts with
+ * its common phrases already learned. A compressed file names its dictionary by ID and hash instead of embedding it,
+ * and the same dictionary file must be supplied to expand it.
+ *
+ * <p>File layout: the magic "LZWD", the ID (32 bits), the phrase count (32 bits), then each phrase as its length
+ * (16 bits) and its bytes.
+ */
+public class Dictionary
+{
+    private static final int MAGIC = 0x4C5A5744;  // "LZWD"
+
+    /**
+     * Longest phrase a dictionary can hold
+     */
+    public static final int MAX_PHRASE_LENGTH = 0xffff;
+
+    private final int id;
+    private final List<byte[]> phrases;
+    private final int hash;
+
+    public Dictionary(int id, List<byte[]> phrases)
+    {
+        for (byte[] phrase : phrases)
+        {
+            if (phrase.length == 0 || phrase.length > MAX_PHRASE_LENGTH)
+            {
+                throw new IllegalArgumentException("Phrase lengths must be between 1 and " + MAX_PHRASE_LENGTH);
+            }
+        }
+        this.id = id;
+        this.phrases = new ArrayList<>(phrases);
+
+        CRC32 crc = new CRC32();
+        for (byte[] phrase : phrases)
+        {
+            crc.update(phrase.length >>> 8);
+            crc.update(phrase.length);
+            crc.update(phrase);
+        }
+        this.hash = (int) crc.getValue();
+    }
+
+    /**
+     * Read a dictionary file
+     *
+     * @throws IOException if the file is not a dictionary
+     */
+    public static Dictionary load(Path path) throws IOException
+    {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        try
+        {
+            if (in.getInt() != MAGIC)
+            {
+                throw new IOException("Not a dictionary file: " + path);
+            }
+            int id = in.getInt();
+            int count = in.getInt();
+            List<byte[]> phrases = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+            {
+                byte[] phrase = new byte[in.getShort() & 0xffff];
+                in.get(phrase);
+                phrases.add(phrase);
+            }
+            return new Dictionary(id, phrases);
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Corrupt dictionary file: " + path, e);
+        }
+    }
+
+    /**
+     * Write this dictionary to a file
+     */
+    public void save(Path path) throws IOException
+    {
+        int size = 12;
+        for (byte[] phrase : phrases)
+        {
+            size += 2 + phrase.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(id).putInt(phrases.size());
+        for (byte[] phrase : phrases)
+        {
+            out.putShort((short) phrase.length).put(phrase);
+        }
+        Files.write(path, out.array());
+    }
+
+    public int id()
+    {
+        return id;
+    }
+
+    /**
+     * CRC-32 of the phrases, stored in the header to catch a different dictionary with the same ID
+     */
+    public int hash()
+    {
+        return hash;
+    }
+
+    public List<byte[]> phrases()
+    {
+        return phrases;
+    }
+
+    /**
+     * Seed codes for an alphabet extended by these phrases: one code per alphabet symbol, as without a dictionary,
+     * followed by one code per phrase prefix not already seeded. Each code is the code of its phrase minus the last
+     * byte plus that byte, the same (prefix, suffix) form the codebook learns entries in. Phrases are cut short at the
+     * first byte outside the alphabet, since the encoder never sees such a byte inside a match.
+     */
+    public Seeds seeds(byte[] alphabet)
+    {
+        int[] root = new int[256];
+        Arrays.fill(root, -1);
+        for (int code = alphabet.length - 1; code >= 0; code--)
+        {
+            root[alphabet[code] & 0xff] = code;
+        }
+
+        Map<Long, Integer> codes = new HashMap<>();
+        int count = alphabet.length;
+        byte[] symbols = Arrays.copyOf(alphabet, alphabet.length + 64);
+        int[] prefixes = new int[symbols.length];
+        Arrays.fill(prefixes, 0, count, Codebook.NO_PREFIX);
+
+        for (byte[] phrase : phrases)
+        {
+            int code = root[phrase[0] & 0xff];
+            for (int i = 1; i < phrase.length && code >= 0 && root[phrase[i] & 0xff] >= 0; i++)
+            {
+                long key = ((long) code << 8) | (phrase[i] & 0xff);
+                Integer next = codes.get(key);
+                if (next == null)
+                {
+                    if (count == symbols.length)
+                    {
+                        symbols = Arrays.copyOf(symbols, 2 * count);
+                        prefixes = Arrays.copyOf(prefixes, 2 * count);
+                    }
+                    next = count++;
+                    symbols[next] = phrase[i];
+                    prefixes[next] = code;
+                    codes.put(key, next);
+                }
+                code = next;
+            }
+        }
+        return new Seeds(Arrays.copyOf(symbols, count), Arrays.copyOf(prefixes, count));
+    }
+
+    /**
+     * Seed codes in codebook order: the last byte of each one, and the code it extends or {@link Codebook#NO_PREFIX}
+     */
+    public static class Seeds
+    {
+        public final byte[] symbols;
+
+        public final int[] prefixes;
+
+        Seeds(byte[] symbols, int[] prefixes)
+        {
+            this.symbols = symbols;
+            this.prefixes = prefixes;
+        }
+    }
+}
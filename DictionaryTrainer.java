@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * DictionaryTrainer - Builds a {@link Dictionary} from a sample corpus. The corpus is cut into shards that run the LZW
+ * phrase-building process in parallel, each counting how often every phrase it learns is emitted; the counts are
+ * merged and the phrases that save the most codes are kept, as many as fit below 2^minW codes next to the alphabet.
+ */
+public class DictionaryTrainer
+{
+    /**
+     * Most corpus bytes one task works through
+     */
+    static final int SHARD_SIZE = 1 << 22;
+
+    /**
+     * Phrases emitted fewer times than this between two resets of a shard are not counted
+     */
+    private static final int MIN_USES = 2;
+
+    private static final int TAR_BLOCK = 512;
+
+    /**
+     * Train on {@code corpus}: a regular file, a tar file (its members are read one by one), or a directory of such
+     * files. Each file or member is learned from an empty codebook, as the compressor would see it, with {@code maxW}
+     * bits of codes. The dictionary's ID is the hash of its phrases.
+     *
+     * @throws IllegalArgumentException if the alphabet leaves no seed codes free below 2^minW
+     */
+    public static Dictionary train(Path corpus, List<String> alphabet, int minW, int maxW, int threads)
+            throws IOException
+    {
+        byte[] symbols = Codebook.seedSymbols(alphabet);
+        int budget = (1 << minW) - 1 - symbols.length;
+        if (budget <= 0)
+        {
+            throw new IllegalArgumentException("minW " + minW + " leaves no codes for phrases after the alphabet");
+        }
+
+        List<List<Slice>> shards = shard(slices(corpus));
+        ThreadLocal<PhraseCounter> counters = ThreadLocal.withInitial(() -> new PhraseCounter(symbols, maxW));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<String, long[]> scores = new HashMap<>();
+        try
+        {
+            CompletionService<Map<String, long[]>> done = new ExecutorCompletionService<>(pool);
+            for (List<Slice> shard : shards)
+            {
+                done.submit(() -> count(shard, counters.get()));
+            }
+
+            // Merge shards as they finish, so only the running total stays in memory
+            for (int i = 0; i < shards.size(); i++)
+            {
+                for (Map.Entry<String, long[]> entry : done.take().get().entrySet())
+                {
+                    long[] total = scores.putIfAbsent(entry.getKey(), entry.getValue());
+                    if (total != null)
+                    {
+                        total[0] += entry.getValue()[0];
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while training", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Could not read corpus: " + e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        List<byte[]> phrases = select(scores, budget);
+        return new Dictionary(new Dictionary(0, phrases).hash(), phrases);
+    }
+
+    /**
+     * Keep the highest scoring phrases whose seed codes fit in {@code budget}. A phrase needs a seed code for itself
+     * and for each of its prefixes of two bytes or more that is not already in, so a phrase that only repeats the
+     * prefix of a longer one costs nothing and is not listed.
+     */
+    private static List<byte[]> select(Map<String, long[]> scores, int budget)
+    {
+        List<Map.Entry<String, long[]>> ranked = new ArrayList<>(scores.entrySet());
+        // A phrase saves (length - 1) codes every time it is emitted; ties go by the bytes, so training is repeatable
+        ranked.sort((a, b) ->
+        {
+            int order = Long.compare(b.getValue()[0] * (b.getKey().length() - 1),
+                    a.getValue()[0] * (a.getKey().length() - 1));
+            return order != 0 ? order : a.getKey().compareTo(b.getKey());
+        });
+
+        Set<String> seeded = new HashSet<>();
+        List<byte[]> phrases = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : ranked)
+        {
+            if (seeded.size() == budget)
+            {
+                break;
+            }
+            String phrase = entry.getKey();
+            int missing = 0;
+            for (int k = phrase.length(); k >= 2 && !seeded.contains(phrase.substring(0, k)); k--)
+            {
+                missing++;
+            }
+            if (missing > 0 && seeded.size() + missing <= budget)
+            {
+                for (int k = 2; k <= phrase.length(); k++)
+                {
+                    seeded.add(phrase.substring(0, k));
+                }
+                phrases.add(phrase.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        return phrases;
+    }
+
+    // Run the phrase-building process over every slice of a shard and total the uses of each learned phrase
+    private static Map<String, long[]> count(List<Slice> shard, PhraseCounter counter) throws IOException
+    {
+        Map<String, long[]> uses = new HashMap<>();
+        for (Slice slice : shard)
+        {
+            try (FileChannel channel = FileChannel.open(slice.file, StandardOpenOption.READ))
+            {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, slice.offset, slice.length);
+                counter.restart();
+                for (int i = 0; i < slice.length; i++)
+                {
+                    if (counter.feed(bytes.get(i) & 0xff))
+                    {
+                        counter.harvest(uses);
+                        counter.restart();
+                    }
+                }
+                counter.harvest(uses);
+            }
+        }
+        return uses;
+    }
+
+    // Group slices into shards of at most SHARD_SIZE bytes, splitting any larger slice
+    private static List<List<Slice>> shard(List<Slice> slices)
+    {
+        List<List<Slice>> shards = new ArrayList<>();
+        List<Slice> shard = new ArrayList<>();
+        long size = 0;
+        for (Slice slice : slices)
+        {
+            for (long offset = 0; offset < slice.length; offset += SHARD_SIZE)
+            {
+                long length = Math.min(SHARD_SIZE, slice.length - offset);
+                if (size + length > SHARD_SIZE)
+                {
+                    shards.add(shard);
+                    shard = new ArrayList<>();
+                    size = 0;
+                }
+                shard.add(new Slice(slice.file, slice.offset + offset, length));
+                size += length;
+            }
+        }
+        if (!shard.isEmpty())
+        {
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    // Every file of the corpus, with tar files replaced by their members
+    private static List<Slice> slices(Path corpus) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(corpus))
+        {
+            try (Stream<Path> walk = Files.walk(corpus))
+            {
+                walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        }
+        else
+        {
+            files.add(corpus);
+        }
+
+        List<Slice> slices = new ArrayList<>();
+        for (Path file : files)
+        {
+            if (file.getFileName().toString().endsWith(".tar"))
+            {
+                tarMembers(file, slices);
+            }
+            else
+            {
+                slices.add(new Slice(file, 0, Files.size(file)));
+            }
+        }
+        return slices;
+    }
+
+    // Add the regular file members of a ustar archive; headers and padding are left out
+    private static void tarMembers(Path tar, List<Slice> slices) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(tar, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(TAR_BLOCK);
+            long position = 0;
+            while (position + TAR_BLOCK <= channel.size())
+            {
+                header.clear();
+                while (header.hasRemaining())
+                {
+                    if (channel.read(header, position + header.position()) < 0)
+                    {
+                        throw new IOException("Truncated tar file: " + tar);
+                    }
+                }
+                if (header.get(0) == 0)
+                {
+                    // End-of-archive marker
+                    break;
+                }
+                long size = octal(header, 124, 12);
+                byte type = header.get(156);
+                position += TAR_BLOCK;
+                if ((type == '0' || type == 0) && size > 0)
+                {
+                    slices.add(new Slice(tar, position, Math.min(size, channel.size() - position)));
+                }
+                position += (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+            }
+        }
+    }
+
+    private static long octal(ByteBuffer header, int offset, int length) throws IOException
+    {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            byte c = header.get(i);
+            if (c >= '0' && c <= '7')
+            {
+                value = (value << 3) | (c - '0');
+            }
+            else if (c != ' ' && c != 0)
+            {
+                throw new IOException("Unsupported tar header");
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Byte range of one corpus file
+     */
+    private static class Slice
+    {
+        final Path file;
+
+        final long offset;
+
+        final long length;
+
+        Slice(Path file, long offset, long length)
+        {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The encoder's phrase-building process without the output: an open-addressing trie over (prefix code, byte) with
+     * a use count per code. It fills up like a codebook with 2^maxW codes and is then harvested and restarted.
+     */
+    private static class PhraseCounter
+    {
+        private static final long EMPTY = -1L;
+
+        private final int[] root = new int[256];  // seed code of each byte value, -1 if not in the alphabet
+        private final int seedSize;
+        private final int capacity;
+
+        private final int[] prefix;
+        private final byte[] suffix;
+        private final int[] length;
+        private final int[] uses;
+
+        private final long[] keys;
+        private final int[] codes;
+        private final int mask;
+        private final int shift;
+
+        private int nextCode;
+        private int current;
+
+        PhraseCounter(byte[] symbols, int maxW)
+        {
+            Arrays.fill(root, -1);
+            for (int code = symbols.length - 1; code >= 0; code--)
+            {
+                root[symbols[code] & 0xff] = code;
+            }
+            seedSize = symbols.length;
+            capacity = 1 << maxW;
+            prefix = new int[capacity];
+            suffix = new byte[capacity];
+            length = new int[capacity];
+            uses = new int[capacity];
+            for (int code = 0; code < seedSize; code++)
+            {
+                suffix[code] = symbols[code];
+                length[code] = 1;
+            }
+
+            int bits = maxW + 1;
+            keys = new long[1 << bits];
+            codes = new int[1 << bits];
+            mask = (1 << bits) - 1;
+            shift = 64 - bits;
+        }
+
+        void restart()
+        {
+            Arrays.fill(keys, EMPTY);
+            Arrays.fill(uses, 0, Math.max(nextCode, seedSize), 0);
+            nextCode = seedSize;
+            current = -1;
+        }
+
+        /**
+         * Feed one byte, as {@link EncoderCodebook#encode} does
+         *
+         * @return true once every code is taken
+         */
+        boolean feed(int b)
+        {
+            int seedCode = root[b];
+            if (seedCode < 0)
+            {
+                return false;
+            }
+            if (current < 0)
+            {
+                current = seedCode;
+                return false;
+            }
+
+            long key = ((long) current << 8) | b;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+            for (; keys[i] != EMPTY; i = (i + 1) & mask)
+            {
+                if (keys[i] == key)
+                {
+                    current = codes[i];
+                    return false;
+                }
+            }
+
+            uses[current]++;
+            if (length[current] < Dictionary.MAX_PHRASE_LENGTH)
+            {
+                keys[i] = key;
+                codes[i] = nextCode;
+                prefix[nextCode] = current;
+                suffix[nextCode] = (byte) b;
+                length[nextCode] = length[current] + 1;
+                nextCode++;
+            }
+            current = seedCode;
+            return nextCode == capacity;
+        }
+
+        /**
+         * Add the uses of every learned phrase used often enough to {@code totals}, keyed by its bytes
+         */
+        void harvest(Map<String, long[]> totals)
+        {
+            if (current >= 0)
+            {
+                uses[current]++;
+                current = -1;
+            }
+            for (int code = seedSize; code < nextCode; code++)
+            {
+                if (uses[code] < MIN_USES)
+                {
+                    continue;
+                }
+                byte[] phrase = new byte[length[code]];
+                for (int c = code, i = phrase.length - 1; i >= 0; c = prefix[c], i--)
+                {
+                    phrase[i] = suffix[c];
+                }
+                long[] total = totals.computeIfAbsent(new String(phrase, StandardCharsets.ISO_8859_1),
+                        k -> new long[1]);
+                total[0] += uses[code];
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+import java.util.Arrays;
+
+/**
+ * EncoderCodebook - Compression side of the codebook. Learned entries are found by (prefix code, next byte) in an
+ * open-addressing hash table of primitive arrays, so extending the current match is one probe and allocates nothing.
+ */
+public class EncoderCodebook extends Codebook
+{
+    private static final long EMPTY = -1L;
+
+    /**
+     * Adaptive policy: input bytes between two checks of the ratio, and checks per sliding window
+     */
+    private static final int CHECK_INTERVAL = 1 << 12;
+
+    private static final int WINDOW_CHECKS = 2;
+
+    /**
+     * Adaptive policy: the full codebook is cleared once the latest window takes this many times the bits per byte of
+     * the best window since it filled, once it takes more than the best any codebook of the stream took while filling,
+     * or once its codes average fewer bytes than MIN_PHRASE; never twice within CLEAR_SPACING input bytes
+     */
+    private static final double CLEAR_THRESHOLD = 1.1;
+
+    private static final double MIN_PHRASE = 1.25;
+
+    private static final int CLEAR_SPACING = 1 << 14;
+
+    private final int[] root = new int[256];  // seed code of each byte value, -1 if not in the alphabet
+
+    // Linear-probing table: packed (prefix << 8 | byte) keys and the code stored for each
+    private final long[] keys;
+    private final int[] codes;
+    private final int mask;
+    private final int shift;
+
+    private int current = -1;  // code of the longest match so far, -1 before the first byte of a stream
+    private int literal = -1;  // entry of a literal byte just sent, whose extension is learned from the next byte
+
+    // Ratio tracking for the adaptive policy
+    private long bytesIn;                                        // alphabet bytes fed since the stream started
+    private long nextCheck;
+    private final long[] checkIn = new long[WINDOW_CHECKS + 1];  // bytesIn and bits written at the latest checks
+    private final long[] checkBits = new long[WINDOW_CHECKS + 1];
+    private int checks;                                          // checks since the codebook started filling
+    private long fillIn = -1;                                    // bytesIn and bits written when it started filling
+    private long fillBits;
+    private boolean filled;                                      // whether it has filled since then
+    private double bestFill = Double.MAX_VALUE;                  // fewest bits per byte of any fill of the stream
+    private double bestWindow = Double.MAX_VALUE;                // fewest bits per byte of a window since it filled
+
+    private RatioTrace trace;  // timeline samples are sent to, if any
+    private long nextSample;   // bytesIn at which the next one is due
+
+    public EncoderCodebook(int minW, int maxW, int policy, byte[] symbols)
+    {
+        this(minW, maxW, policy, symbols, null);
+    }
+
+    /**
+     * Codebook seeded with multi-byte phrases as well, see {@link Dictionary#seeds}
+     */
+    public EncoderCodebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes)
+    {
+        this(minW, maxW, policy, symbols, seedPrefixes, false);
+    }
+
+    /**
+     * Codebook that sends bytes outside the alphabet as literals after the escape code if {@code escapes} is set,
+     * instead of skipping them
+     */
+    public EncoderCodebook(int minW, int maxW, int policy, byte[] symbols, int[] seedPrefixes, boolean escapes)
+    {
+        super(minW, maxW, policy, symbols, seedPrefixes, escapes);
+
+        Arrays.fill(root, -1);
+        for (int code = seedSize - 1; code >= 0; code--)
+        {
+            if (prefix[code] == NO_PREFIX && code != escapeCode)
+            {
+                root[suffix[code] & 0xff] = code;  // first occurrence wins on duplicate bytes
+            }
+        }
+
+        // At most 2^maxW entries, so twice that keeps the load factor at or below one half
+        int bits = maxW + 1;
+        keys = new long[1 << bits];
+        codes = new int[1 << bits];
+        mask = (1 << bits) - 1;
+        shift = 64 - bits;
+
+        seed();
+    }
+
+    /**
+     * Code of the one-byte phrase {@code b}, or -1 if {@code b} is not in the alphabet and has not been learned from a
+     * literal
+     */
+    public int root(int b)
+    {
+        return root[b];
+    }
+
+    /**
+     * Code of the entry that extends {@code prefixCode} by byte {@code b}, or -1 if there is none. The all-ones code of
+     * the current width is never returned: it is the stop code, so the encoder emits its prefix instead.
+     */
+    public int find(int prefixCode, int b)
+    {
+        long key = ((long) prefixCode << 8) | b;
+        for (int i = index(key); ; i = (i + 1) & mask)
+        {
+            long k = keys[i];
+            if (k == key)
+            {
+                int code = codes[i];
+                return code == endCode() ? -1 : code;
+            }
+            if (k == EMPTY)
+            {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Feed byte {@code b} of the input: extend the current match if the codebook has the longer phrase, otherwise emit
+     * the match's code to {@code out}, learn match + {@code b} and start a new match at {@code b}. Bytes outside the
+     * alphabet have no code; they are sent as literals with escapes, and skipped without.
+     */
+    public void encode(int b, BitOutput out)
+    {
+        int seedCode = root[b];
+        if (seedCode < 0)
+        {
+            if (escapeCode >= 0)
+            {
+                escape(b, out);
+            }
+            return;
+        }
+        bytesIn++;
+        if (current >= 0)
+        {
+            int next = find(current, b);
+            if (next >= 0)
+            {
+                current = next;
+                return;
+            }
+
+            // Output code for current, then learn current + b
+            out.write(current, width);
+            statCodes++;
+            touch(current);
+            add(current, b);
+            if (policy == ADAPTIVE && bytesIn >= nextCheck)
+            {
+                checkRatio(out);
+            }
+            if (trace != null && bytesIn >= nextSample)
+            {
+                sample(out);
+            }
+        }
+        else if (literal >= 0)
+        {
+            add(literal, b);
+            literal = -1;
+        }
+
+        // A reset or clear just now drops the code of a byte learned from a literal; the byte is then sent as one again
+        current = root[b];
+        if (current < 0)
+        {
+            sendLiteral(b, out);
+        }
+    }
+
+    // A byte with no one-byte code: extend the match if an entry learned after an earlier literal has it, otherwise
+    // end the match and send the byte as a literal
+    private void escape(int b, BitOutput out)
+    {
+        bytesIn++;
+        if (current >= 0)
+        {
+            int next = find(current, b);
+            if (next >= 0)
+            {
+                current = next;
+                return;
+            }
+            out.write(current, width);
+            statCodes++;
+            touch(current);
+            add(current, b);
+            current = -1;
+        }
+        else if (literal >= 0)
+        {
+            add(literal, b);
+        }
+        sendLiteral(b, out);
+    }
+
+    // Send the escape code and the raw byte, then learn the byte as a one-byte entry so later phrases can use it
+    private void sendLiteral(int b, BitOutput out)
+    {
+        out.write(escapeCode, width);
+        out.write(b, 8);
+        statCodes++;
+        literal = reserve(NO_PREFIX);
+        if (literal >= 0)
+        {
+            suffix[literal] = (byte) b;
+            root[b] = literal;
+        }
+        if (trace != null && bytesIn >= nextSample)
+        {
+            sample(out);
+        }
+    }
+
+    /**
+     * Send a timeline sample to {@code trace} every {@link RatioTrace#interval()} input bytes, and one at the end of
+     * the stream; null stops tracing
+     */
+    void trace(RatioTrace trace)
+    {
+        this.trace = trace;
+        nextSample = trace == null ? 0 : bytesIn + trace.interval();
+    }
+
+    private void sample(BitOutput out)
+    {
+        nextSample = bytesIn + trace.interval();
+        trace.sample(bytesIn, out.bitsWritten(), width, nextCode, statEvictions, statResets);
+    }
+
+    // Adaptive policy: once the codebook is full, clear it when the bits per byte over the latest window show it doing
+    // worse than it did at its best, or worse than learning from scratch did. Windows are kept while it fills, so the
+    // first check after filling already sees a whole one and stale data is caught without a frozen window's delay
+    private void checkRatio(BitOutput out)
+    {
+        nextCheck = bytesIn + CHECK_INTERVAL;
+        if (fillIn < 0)
+        {
+            fillIn = bytesIn;
+            fillBits = out.bitsWritten();
+        }
+        if (!filled && nextCode >= entryLimit)
+        {
+            filled = true;
+            bestFill = Math.min(bestFill, (double) (out.bitsWritten() - fillBits) / Math.max(bytesIn - fillIn, 1));
+        }
+        int latest = checks % checkIn.length;
+        checkIn[latest] = bytesIn;
+        checkBits[latest] = out.bitsWritten();
+        if (++checks <= WINDOW_CHECKS || !filled)
+        {
+            return;
+        }
+
+        int oldest = checks % checkIn.length;
+        double ratio = (double) (checkBits[latest] - checkBits[oldest]) / (checkIn[latest] - checkIn[oldest]);
+        bestWindow = Math.min(bestWindow, ratio);
+        if (bytesIn - fillIn >= CLEAR_SPACING
+                && (ratio > bestWindow * CLEAR_THRESHOLD || ratio > bestFill || ratio * MIN_PHRASE > width))
+        {
+            // Written at width maxW, before the reset narrows it
+            out.write(clearCode(), width);
+            reseed("clear");
+            checks = 0;
+            filled = false;
+            bestWindow = Double.MAX_VALUE;
+            fillIn = bytesIn;
+            fillBits = out.bitsWritten();
+        }
+    }
+
+    /**
+     * Emit the code of the pending match and the stop code, ending the stream; the output is not flushed
+     *
+     * @return the width the stop code was written at
+     */
+    public int finish(BitOutput out)
+    {
+        if (current >= 0)
+        {
+            out.write(current, width);
+            statCodes++;
+
+            // The decoder claims a slot after every code it reads, so the stop code goes out at that slot's width
+            touch(current);
+            reserve(current);
+            current = -1;
+        }
+        else if (literal >= 0)
+        {
+            reserve(literal);
+            literal = -1;
+        }
+
+        if (trace != null)
+        {
+            sample(out);
+        }
+
+        // Write stop code (use maximum possible value for current width as EOF marker)
+        out.write(endCode(), width);
+        statBytes = bytesIn;
+        recordStats();
+        return width;
+    }
+
+    /**
+     * Add the entry {@code prefixCode} + {@code b} under the code chosen by the policy
+     */
+    public void add(int prefixCode, int b)
+    {
+        int slot = reserve(prefixCode);
+        if (slot < 0)
+        {
+            return;
+        }
+        suffix[slot] = (byte) b;
+        if (prefix[slot] != NO_PREFIX)
+        {
+            insert(((long) prefix[slot] << 8) | b, slot);
+        }
+    }
+
+    private int index(long key)
+    {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void insert(long key, int code)
+    {
+        int i = index(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                // Same phrase already has a code; keep matching the older one
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        codes[i] = code;
+    }
+
+    @Override
+    void restart()
+    {
+        super.restart();
+        current = -1;
+        literal = -1;
+        bytesIn = 0;
+        nextCheck = 0;
+        checks = 0;
+        fillIn = -1;
+        filled = false;
+        bestFill = Double.MAX_VALUE;
+        bestWindow = Double.MAX_VALUE;
+        nextSample = trace == null ? 0 : trace.interval();
+    }
+
+    @Override
+    void forget(int code)
+    {
+        if (prefix[code] == NO_PREFIX)
+        {
+            if (root[suffix[code] & 0xff] == code)
+            {
+                // A byte learned from a literal goes back to needing the escape code
+                root[suffix[code] & 0xff] = -1;
+            }
+            return;
+        }
+        long key = ((long) prefix[code] << 8) | (suffix[code] & 0xff);
+        int hole = index(key);
+        while (keys[hole] != key)
+        {
+            if (keys[hole] == EMPTY)
+            {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+        if (codes[hole] != code)
+        {
+            return;
+        }
+
+        // Backward-shift deletion: pull later entries of the probe run into the hole so lookups never stop early
+        for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask)
+        {
+            int home = index(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask))
+            {
+                keys[hole] = keys[j];
+                codes[hole] = codes[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+    }
+
+    @Override
+    void clearEntries()
+    {
+        Arrays.fill(keys, EMPTY);
+        for (int b = 0; b < root.length; b++)
+        {
+            if (root[b] >= seedSize)
+            {
+                root[b] = -1;
+            }
+        }
+
+        // Seed phrases survive every reset
+        for (int code = 0; code < seedSize; code++)
+        {
+            if (prefix[code] != NO_PREFIX)
+            {
+                insert(((long) prefix[code] << 8) | (suffix[code] & 0xff), code);
+            }
+        }
+    }
+}
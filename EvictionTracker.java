@@ -0,0 +1,39 @@
+/**
+ * EvictionTracker - Orders the codebook entries that may be evicted under the lru and lfu policies. Uses are recorded
+ * for every entry, but only leaf entries (codes no other entry extends) are candidates, so an evicted slot never
+ * leaves another entry without its prefix. The encoder and decoder feed identical calls to their trackers, so both
+ * pick the same victim.
+ */
+public interface EvictionTracker
+{
+    /**
+     * Track a newly added entry as a candidate
+     */
+    void add(int code);
+
+    /**
+     * Record a use of {@code code}, whether it is a candidate or not
+     */
+    void touch(int code);
+
+    /**
+     * Stop treating {@code code} as a candidate, because it was evicted or gained an extension
+     */
+    void remove(int code);
+
+    /**
+     * Treat {@code code} as a candidate again after its last extension was evicted, ordered by the uses recorded for
+     * it meanwhile
+     */
+    void restore(int code);
+
+    /**
+     * Entry to evict next, skipping {@code exclude}, or -1 if there is none
+     */
+    int victim(int exclude);
+
+    /**
+     * Stop tracking every entry
+     */
+    void clear();
+}
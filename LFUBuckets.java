@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * LFUBuckets - Least-frequently-used order kept as frequency buckets, each holding the leaf codes used that many times,
+ * all threaded through primitive arrays, with the use count of every entry, leaf or not. Buckets are indexed directly
+ * by the count: one per count below 64, then 16 per power of two, so counts within about 6% of each other share a
+ * bucket. A bit mask marks the buckets that are not empty, so touching a code, restoring one to the bucket of its own
+ * count and finding the victim are all O(1), with no walk over buckets or counts.
+ * <p>
+ * Ties break by age within the bucket: the code that joined the minimum frequency bucket first is evicted first.
+ */
+public class LFUBuckets implements EvictionTracker
+{
+    private static final int NONE = -1;
+
+    // Counts below this have a bucket each; above it, each power of two is split into 2^SUB_BITS buckets
+    private static final int EXACT_COUNTS = 64;
+    private static final int EXACT_BITS = 6;
+    private static final int SUB_BITS = 4;
+    private static final int BUCKETS = EXACT_COUNTS + (Integer.SIZE - 1 - EXACT_BITS << SUB_BITS);
+
+    // Per code: uses, bucket it is in and its neighbours within that bucket (oldest first)
+    private final int[] uses;
+    private final int[] bucketOf;
+    private final int[] prevInBucket;
+    private final int[] nextInBucket;
+
+    // Per bucket: first and last code, and one bit per bucket that is not empty
+    private final int[] first = new int[BUCKETS];
+    private final int[] last = new int[BUCKETS];
+    private final long[] occupied = new long[(BUCKETS + Long.SIZE - 1) / Long.SIZE];
+
+    public LFUBuckets(int capacity)
+    {
+        uses = new int[capacity];
+        bucketOf = new int[capacity];
+        prevInBucket = new int[capacity];
+        nextInBucket = new int[capacity];
+        clear();
+    }
+
+    @Override
+    public void add(int code)
+    {
+        uses[code] = 0;
+        append(0, code);
+    }
+
+    @Override
+    public void touch(int code)
+    {
+        if (uses[code] == Integer.MAX_VALUE)
+        {
+            return;
+        }
+        uses[code]++;
+        if (bucketOf[code] == NONE)
+        {
+            return;
+        }
+        remove(code);
+        append(bucketFor(uses[code]), code);
+    }
+
+    @Override
+    public void remove(int code)
+    {
+        int bucket = bucketOf[code];
+        if (bucket == NONE)
+        {
+            return;
+        }
+        int before = prevInBucket[code];
+        int after = nextInBucket[code];
+        if (before == NONE)
+        {
+            first[bucket] = after;
+        }
+        else
+        {
+            nextInBucket[before] = after;
+        }
+        if (after == NONE)
+        {
+            last[bucket] = before;
+        }
+        else
+        {
+            prevInBucket[after] = before;
+        }
+        if (first[bucket] == NONE)
+        {
+            occupied[bucket >>> 6] &= ~(1L << bucket);
+        }
+        bucketOf[code] = NONE;
+    }
+
+    @Override
+    public void restore(int code)
+    {
+        append(bucketFor(uses[code]), code);
+    }
+
+    @Override
+    public int victim(int exclude)
+    {
+        int bucket = firstOccupied(0);
+        if (bucket == NONE)
+        {
+            return -1;
+        }
+        int code = first[bucket];
+        if (code != exclude)
+        {
+            return code;
+        }
+        if (nextInBucket[code] != NONE)
+        {
+            return nextInBucket[code];
+        }
+        bucket = firstOccupied(bucket + 1);
+        return bucket == NONE ? -1 : first[bucket];
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(uses, 0);
+        Arrays.fill(bucketOf, NONE);
+        Arrays.fill(first, NONE);
+        Arrays.fill(last, NONE);
+        Arrays.fill(occupied, 0);
+    }
+
+    // Bucket of a use count: the count itself while it is small, then its top SUB_BITS bits below the leading one
+    private static int bucketFor(int count)
+    {
+        if (count < EXACT_COUNTS)
+        {
+            return count;
+        }
+        int exponent = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(count);
+        return EXACT_COUNTS + (exponent - EXACT_BITS << SUB_BITS)
+                + ((count >>> exponent - SUB_BITS) & (1 << SUB_BITS) - 1);
+    }
+
+    // Lowest bucket at or above from that is not empty, or NONE; the mask is a handful of words long
+    private int firstOccupied(int from)
+    {
+        for (int word = from >>> 6; word < occupied.length; word++)
+        {
+            long bits = occupied[word];
+            if (word == from >>> 6)
+            {
+                bits &= -1L << from;
+            }
+            if (bits != 0)
+            {
+                return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return NONE;
+    }
+
+    private void append(int bucket, int code)
+    {
+        bucketOf[code] = bucket;
+        prevInBucket[code] = last[bucket];
+        nextInBucket[code] = NONE;
+        if (last[bucket] == NONE)
+        {
+            first[bucket] = code;
+            occupied[bucket >>> 6] |= 1L << bucket;
+        }
+        else
+        {
+            nextInBucket[last[bucket]] = code;
+        }
+        last[bucket] = code;
+    }
+}
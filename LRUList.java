@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+/**
+ * LRUList - Least-recently-used order kept as a doubly linked list of the leaf entries threaded through primitive
+ * {@code prev}/{@code next} arrays indexed by code, with the time of the last use of every entry, leaf or not.
+ * Touching a code and finding the victim are both O(1); a restored entry is walked into place from the least recent
+ * end, which is short because an entry is used whenever its extensions are.
+ */
+public class LRUList implements EvictionTracker
+{
+    private static final int NONE = -1;
+
+    private final int[] prev;
+    private final int[] next;
+    private final int head;  // sentinel: next[head] is least recent, prev[head] is most recent
+    private final long[] lastUse;
+    private long clock;
+
+    public LRUList(int capacity)
+    {
+        prev = new int[capacity + 1];
+        next = new int[capacity + 1];
+        head = capacity;
+        lastUse = new long[capacity];
+        clear();
+    }
+
+    @Override
+    public void add(int code)
+    {
+        lastUse[code] = ++clock;
+        linkAfter(prev[head], code);
+    }
+
+    @Override
+    public void touch(int code)
+    {
+        lastUse[code] = ++clock;
+        if (prev[code] == NONE || prev[head] == code)
+        {
+            return;
+        }
+        unlink(code);
+        linkAfter(prev[head], code);
+    }
+
+    @Override
+    public void remove(int code)
+    {
+        if (prev[code] != NONE)
+        {
+            unlink(code);
+        }
+    }
+
+    @Override
+    public void restore(int code)
+    {
+        int after = next[head];
+        while (after != head && lastUse[after] < lastUse[code])
+        {
+            after = next[after];
+        }
+        linkAfter(prev[after], code);
+    }
+
+    @Override
+    public int victim(int exclude)
+    {
+        int code = next[head];
+        if (code == exclude)
+        {
+            code = next[code];
+        }
+        return code == head ? -1 : code;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(prev, NONE);
+        Arrays.fill(lastUse, 0);
+        prev[head] = head;
+        next[head] = head;
+    }
+
+    private void linkAfter(int before, int code)
+    {
+        int after = next[before];
+        prev[code] = before;
+        next[code] = after;
+        next[before] = code;
+        prev[after] = code;
+    }
+
+    private void unlink(int code)
+    {
+        next[prev[code]] = next[code];
+        prev[next[code]] = prev[code];
+        prev[code] = NONE;
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * LZWArchive - Many files in one archive, each compressed on its own as an ordinary LZW stream (header included), so
+ * members are compressed concurrently and any one of them can be extracted without decoding the others.
+ *
+ * <p>Layout: the magic "LZWA", the member streams back to back in the order they finished, then the central index (the
+ * magic "LZWI", the member count, and per member its name, offset, compressed size and original size, in the order
+ * the members were given), and finally the offset of the index in the last 8 bytes.
+ */
+public class LZWArchive
+{
+    private static final int MAGIC = 0x4C5A5741;        // "LZWA"
+
+    private static final int INDEX_MAGIC = 0x4C5A5749;  // "LZWI"
+
+    /**
+     * Largest direct buffer used when writing the archive
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Archive all regular files under the directory {@code source}, named by their path relative to it, or the files
+     * listed one per line in the text file {@code source}, named by the path as listed
+     */
+    public static void create(Path source, Path archive, int minW, int maxW, String policy, List<String> alphabet,
+                              boolean escapes, int threads) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (Files.isDirectory(source))
+        {
+            try (Stream<Path> walk = Files.walk(source))
+            {
+                walk.filter(Files::isRegularFile).sorted().forEach(file ->
+                {
+                    files.add(file);
+                    names.add(memberName(source.relativize(file)));
+                });
+            }
+        }
+        else
+        {
+            for (String line : Files.readAllLines(source, StandardCharsets.UTF_8))
+            {
+                if (!line.isEmpty())
+                {
+                    Path file = Paths.get(line);
+                    files.add(file);
+                    names.add(memberName(file.getRoot() == null ? file : file.getRoot().relativize(file)));
+                }
+            }
+        }
+        create(files, names, archive, minW, maxW, policy, alphabet, escapes, threads);
+    }
+
+    /**
+     * Archive {@code files} under the given member names, compressing up to {@code threads} members at once. Each
+     * compressed member is held in memory only until it is written. With {@code escapes}, bytes outside the alphabet
+     * are kept as literals.
+     */
+    public static void create(List<Path> files, List<String> names, Path archive, int minW, int maxW, String policy,
+                              List<String> alphabet, boolean escapes, int threads) throws IOException
+    {
+        int policyByte = Codebook.policyCode(policy) | (escapes ? LZWTool.ESCAPE : 0);
+
+        // Member tasks are CPU-bound, so one platform thread per core does as well as a thread per member
+        ThreadLocal<EncoderCodebook> codebooks = ThreadLocal.withInitial(
+                () -> LZWTool.newEncoder(minW, maxW, policyByte, alphabet, null));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        Member[] members = new Member[files.size()];
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            BitOutput out = new BitOutput(channel, WRITE_BUFFER_SIZE);
+            out.write(MAGIC, 32);
+
+            CompletionService<Integer> done = new ExecutorCompletionService<>(pool);
+            byte[][] compressed = new byte[files.size()][];
+            for (int i = 0; i < files.size(); i++)
+            {
+                int index = i;
+                done.submit(() ->
+                {
+                    compressed[index] = compressMember(files.get(index), codebooks.get(), minW, maxW, policyByte,
+                            alphabet);
+                    return index;
+                });
+            }
+
+            // Write members as they finish; the index records where each one landed
+            for (int i = 0; i < files.size(); i++)
+            {
+                int index = done.take().get();
+                byte[] data = compressed[index];
+                compressed[index] = null;
+                members[index] = new Member(names.get(index), out.bitsWritten() / 8, data.length,
+                        Files.size(files.get(index)));
+                out.write(data, 0, data.length);
+            }
+
+            writeIndex(out, members);
+            out.flush();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while archiving", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Could not compress member: " + e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the central index of an archive
+     */
+    public static List<Member> list(Path archive) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ))
+        {
+            return readIndex(channel);
+        }
+    }
+
+    /**
+     * Expand the single member {@code name} to {@code out}; no other member is read
+     *
+     * @throws IllegalArgumentException if the archive has no such member
+     */
+    public static void extract(Path archive, String name, BitOutput out) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ))
+        {
+            for (Member member : readIndex(channel))
+            {
+                if (member.name.equals(name))
+                {
+                    LZWTool.expand(memberInput(channel, member), out);
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No member named " + name);
+    }
+
+    /**
+     * Expand every member into {@code dir}, up to {@code threads} members at once
+     */
+    public static void extractAll(Path archive, Path dir, int threads) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ))
+        {
+            // Absolute on both sides: "." normalizes to the empty path, which no target starts with
+            Path root = dir.toAbsolutePath().normalize();
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Member member : readIndex(channel))
+            {
+                Path target = root.resolve(member.name).normalize();
+                if (!target.startsWith(root) || target.equals(root))
+                {
+                    throw new IOException("Member name escapes the target directory: " + member.name);
+                }
+                tasks.add(pool.submit(() ->
+                {
+                    Path parent = target.getParent();
+                    if (parent != null)
+                    {
+                        Files.createDirectories(parent);
+                    }
+                    FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                    BitOutput out = new BitOutput(file, (int) Math.min(member.size, WRITE_BUFFER_SIZE));
+                    try
+                    {
+                        LZWTool.expand(memberInput(channel, member), out);
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks)
+            {
+                task.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Could not extract member: " + e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    // Relative path with '/' separators, the same on every platform
+    private static String memberName(Path path)
+    {
+        return path.normalize().toString().replace('\\', '/');
+    }
+
+    // Compress one file into a complete LZW stream with a reseeded codebook
+    private static byte[] compressMember(Path file, EncoderCodebook codebook, int minW, int maxW, int policyByte,
+                                         List<String> alphabet) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutput out = new BitOutput(bytes);
+        BitInput in = new BitInput(FileChannel.open(file, StandardOpenOption.READ));
+        try
+        {
+            codebook.restart();
+            LZWTool.writeHeader(out, minW, maxW, policyByte, alphabet);
+            LZWTool.encode(codebook, in, out);
+            out.flush();
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    // Map just the bytes of one member; mappings are independent of the channel position, so threads can share it
+    private static BitInput memberInput(FileChannel channel, Member member) throws IOException
+    {
+        if (member.compressedSize > Integer.MAX_VALUE)
+        {
+            throw new IOException("Member too large to map: " + member.name);
+        }
+        return new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, member.offset, member.compressedSize));
+    }
+
+    private static void writeIndex(BitOutput out, Member[] members)
+    {
+        long indexOffset = out.bitsWritten() / 8;
+        out.write(INDEX_MAGIC, 32);
+        out.write(members.length, 32);
+        for (Member member : members)
+        {
+            byte[] name = member.name.getBytes(StandardCharsets.UTF_8);
+            out.write(name.length, 16);
+            out.write(name, 0, name.length);
+            writeLong(out, member.offset);
+            writeLong(out, member.compressedSize);
+            writeLong(out, member.size);
+        }
+        writeLong(out, indexOffset);
+    }
+
+    private static List<Member> readIndex(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if (size < 12 || readMagic(channel, 0) != MAGIC)
+        {
+            throw new IOException("Not an LZW archive");
+        }
+        long indexOffset = readLong(new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8)));
+        if (indexOffset < 4 || indexOffset > size - 8 || readMagic(channel, indexOffset) != INDEX_MAGIC)
+        {
+            throw new IOException("Corrupt archive index");
+        }
+
+        BitInput in = new BitInput(channel.map(FileChannel.MapMode.READ_ONLY, indexOffset + 4,
+                size - 8 - indexOffset - 4));
+        int count = in.readInt(32);
+        List<Member> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            byte[] name = new byte[in.readInt(16)];
+            in.read(name, 0, name.length);
+            members.add(new Member(new String(name, StandardCharsets.UTF_8), readLong(in), readLong(in),
+                    readLong(in)));
+        }
+        return members;
+    }
+
+    private static int readMagic(FileChannel channel, long offset) throws IOException
+    {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        if (channel.read(magic, offset) < 4)
+        {
+            return 0;
+        }
+        return magic.getInt(0);
+    }
+
+    private static void writeLong(BitOutput out, long x)
+    {
+        out.write((int) (x >>> 32), 32);
+        out.write((int) x, 32);
+    }
+
+    private static long readLong(BitInput in)
+    {
+        long high = in.readInt(32) & 0xffffffffL;
+        return (high << 32) | (in.readInt(32) & 0xffffffffL);
+    }
+
+    /**
+     * One entry of the central index
+     */
+    public static class Member
+    {
+        public final String name;
+
+        public final long offset;           // position of the member's stream in the archive
+
+        public final long compressedSize;   // bytes of the member's stream
+
+        public final long size;             // bytes of the original file
+
+        Member(String name, long offset, long compressedSize, long size)
+        {
+            this.name = name;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+}
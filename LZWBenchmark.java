@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LZWBenchmark - Measures {@link LZWTool#compress} and {@link LZWTool#expand} for each policy and several minW/maxW
+ * pairs over a corpus of files, reporting MB/s, bytes allocated per operation and the compression ratio. Every
+ * configuration runs a few warm-up iterations first so the JIT has settled, then the measured iterations are
+ * averaged. Input, output and the compressed copy sit in arrays allocated once per file, so the allocation figure is
+ * what the codec itself allocates. The same measurements under JMH are in {@code benchmarks/}.
+ *
+ * <p>Usage: {@code java LZWBenchmark [--alphabet file] [--policies p,...] [--widths minW:maxW,...] [--warmup n]
+ * [--iterations n] [files...]}
+ */
+public class LZWBenchmark
+{
+    private static final String[] DEFAULT_FILES = {
+            "TestFiles/large.txt", "TestFiles/wacky.bmp", "TestFiles/frosty.jpg", "TestFiles/edit.exe",
+            "TestFiles/all.tar"
+    };
+
+    private static final String[] DEFAULT_POLICIES = {"freeze", "reset", "lru", "lfu", "adaptive"};
+
+    private static final String[] DEFAULT_WIDTHS = {"9:12", "9:16", "12:16"};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException
+    {
+        String alphabetPath = "alphabets/ascii.txt";
+        String[] policies = DEFAULT_POLICIES;
+        String[] widths = DEFAULT_WIDTHS;
+        int warmup = 3;
+        int iterations = 5;
+        List<String> files = new ArrayList<>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "--alphabet":
+                        alphabetPath = args[++i];
+                        break;
+                    case "--policies":
+                        policies = args[++i].split(",");
+                        break;
+                    case "--widths":
+                        widths = args[++i].split(",");
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--iterations":
+                        iterations = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        files.add(args[i]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | NumberFormatException e)
+        {
+            System.err.println("Error: Invalid arguments");
+            System.exit(1);
+        }
+        if (files.isEmpty())
+        {
+            files.addAll(Arrays.asList(DEFAULT_FILES));
+        }
+        if (warmup < 0 || iterations < 1)
+        {
+            System.err.println("Error: --warmup must be at least 0 and --iterations at least 1");
+            System.exit(1);
+        }
+
+        List<String> alphabet = LZWTool.readAlphabet(alphabetPath);
+        System.out.printf("%-16s %-9s %-6s %8s %10s %10s %10s %10s%n", "file", "policy", "widths", "ratio",
+                "comp MB/s", "comp B/op", "exp MB/s", "exp B/op");
+        for (String file : files)
+        {
+            byte[] data = Files.readAllBytes(Paths.get(file));
+            String name = Paths.get(file).getFileName().toString();
+
+            // Worst case is an escape code of maxW bits and a literal byte for every byte, plus the header
+            byte[] compressed = new byte[4 * data.length + (1 << 16)];
+            byte[] expanded = new byte[data.length];
+
+            for (String policy : policies)
+            {
+                for (String pair : widths)
+                {
+                    String[] w = pair.split(":");
+                    int minW = Integer.parseInt(w[0]);
+                    int maxW = Integer.parseInt(w[1]);
+
+                    Result compress = measure(warmup, iterations,
+                            () -> compress(minW, maxW, policy, alphabet, data, compressed));
+                    int length = compress(minW, maxW, policy, alphabet, data, compressed);
+                    Result expand = measure(warmup, iterations, () -> expand(compressed, length, expanded));
+                    if (expand(compressed, length, expanded) != data.length)
+                    {
+                        System.err.println("Error: " + name + " did not expand to its original length");
+                        System.exit(1);
+                    }
+
+                    System.out.printf("%-16s %-9s %-6s %8.4f %10.2f %10d %10.2f %10d%n", name, policy, pair,
+                            (double) length / Math.max(data.length, 1), compress.megabytesPerSecond(data.length),
+                            compress.bytesAllocated, expand.megabytesPerSecond(data.length), expand.bytesAllocated);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compress {@code data} into {@code out}, returning the compressed length. Bytes outside the alphabet are kept
+     * with escapes, so every input expands back to all of its bytes and ratios cover the whole file.
+     */
+    public static int compress(int minW, int maxW, String policy, List<String> alphabet, byte[] data, byte[] out)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        LZWTool.compress(minW, maxW, policy, alphabet, null, true, new BitInput(ByteBuffer.wrap(data)),
+                new BitOutput(buffer));
+        return buffer.position();
+    }
+
+    /**
+     * Expand the first {@code length} bytes of {@code compressed} into {@code out}, returning the expanded length
+     */
+    public static int expand(byte[] compressed, int length, byte[] out)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        LZWTool.expand(new BitInput(ByteBuffer.wrap(compressed, 0, length)), new BitOutput(buffer));
+        return buffer.position();
+    }
+
+    // Run op warmup times untimed, then iterations times, averaging the time and the bytes it allocated
+    private static Result measure(int warmup, int iterations, Operation op)
+    {
+        for (int i = 0; i < warmup; i++)
+        {
+            op.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            op.run();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+        return new Result(nanos / iterations, allocated / iterations);
+    }
+
+    private interface Operation
+    {
+        int run();
+    }
+
+    /**
+     * Mean time and allocation of one operation
+     */
+    private static class Result
+    {
+        final long nanos;
+
+        final long bytesAllocated;
+
+        Result(long nanos, long bytesAllocated)
+        {
+            this.nanos = nanos;
+            this.bytesAllocated = bytesAllocated;
+        }
+
+        double megabytesPerSecond(int length)
+        {
+            return length * 1e3 / Math.max(nanos, 1);
+        }
+    }
+}
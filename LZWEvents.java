@@ -0,0 +1,113 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * LZWEvents - Java Flight Recorder events for the codebook and block codec. All of them are disabled by default, so a
+ * recording only pays for the ones switched on in its settings, for example
+ * {@code -XX:StartFlightRecording:filename=lzw.jfr,+lzw.Eviction#enabled=true}. While disabled,
+ * {@code begin()}, {@code shouldCommit()} and {@code commit()} do nothing and the event objects are optimized away.
+ */
+public final class LZWEvents
+{
+    private LZWEvents()
+    {
+    }
+
+    /**
+     * The codebook went back to its seeds in the middle of a stream
+     */
+    @Name("lzw.CodebookReset")
+    @Label("Codebook Reset")
+    @Category("LZW")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class CodebookReset extends Event
+    {
+        @Label("Codebook")
+        String codebook;
+
+        @Label("Policy")
+        String policy;
+
+        @Label("Cause")
+        @Description("reset when the codebook filled, or clear when the adaptive policy saw the ratio drop")
+        String cause;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Width")
+        int width;
+    }
+
+    /**
+     * The code width grew by one bit
+     */
+    @Name("lzw.WidthChange")
+    @Label("Width Change")
+    @Category("LZW")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class WidthChange extends Event
+    {
+        @Label("Codebook")
+        String codebook;
+
+        @Label("Width")
+        int width;
+
+        @Label("Next Code")
+        int nextCode;
+    }
+
+    /**
+     * One lru or lfu eviction: picking the victim and unlinking it, timed
+     */
+    @Name("lzw.Eviction")
+    @Label("Eviction")
+    @Category("LZW")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Eviction extends Event
+    {
+        @Label("Codebook")
+        String codebook;
+
+        @Label("Policy")
+        String policy;
+
+        @Label("Victim")
+        int victim;
+    }
+
+    /**
+     * One block of a block-framed file coded, timed
+     */
+    @Name("lzw.Block")
+    @Label("Block")
+    @Category("LZW")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Block extends Event
+    {
+        @Label("Operation")
+        String operation;
+
+        @Label("Index")
+        int index;
+
+        @Label("Expanded Size")
+        @DataAmount
+        long expandedBytes;
+
+        @Label("Compressed Size")
+        @DataAmount
+        long compressedBytes;
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * LZWInputStream - Expands a stream written by {@link LZWTool#compress} or {@link LZWOutputStream} as it is read. The
+ * header is read on construction; after that codes are decoded a buffer at a time into one reused array, so memory
+ * does not grow with the payload. A read returns as soon as some bytes are decoded and the next code has not arrived
+ * yet, so a slow source does not hold back what is already here. Block-framed files are not supported.
+ *
+ * <p>Compressed bytes are read from the wrapped stream in chunks of up to 64 KB, so bytes that follow the LZW stream in
+ * it may be consumed as well; wrap a stream that holds only the compressed data. If it ends before the stop code, the
+ * bytes decoded up to there are returned and the read after them throws {@link EOFException}.
+ */
+public class LZWInputStream extends FilterInputStream
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Most bits the codebook reads for one phrase: a clear code, then an escape code and its literal byte
+     */
+    private static final int NEXT_CODE_BITS = 2 * Codebook.MAX_WIDTH + 8;
+
+    private final BitInput codes;
+    private final DecoderCodebook codebook;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;        // next byte of buffer to return
+    private int limit;           // number of decoded bytes in buffer
+    private int pendingLength;   // length of a phrase read but not yet decoded, 0 if none
+    private boolean ended;
+    private boolean truncated;   // the input ended before the stop code
+
+    public LZWInputStream(InputStream in) throws IOException
+    {
+        this(in, null);
+    }
+
+    /**
+     * Expand a stream compressed with {@code dictionary}; null if it was compressed without one
+     */
+    public LZWInputStream(InputStream in, Dictionary dictionary) throws IOException
+    {
+        super(in);
+        codes = new BitInput(in);
+        try
+        {
+            LZWTool.HeaderInfo info = LZWTool.readHeader(codes);
+            if ((info.flags & LZWTool.BLOCK_FRAMED) != 0)
+            {
+                throw new IOException("Block-framed files must be expanded with LZWTool.expand");
+            }
+            LZWTool.useDictionary(info, dictionary);
+            codebook = LZWTool.newDecoder(info);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Not an LZW stream: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (position == limit && !fill())
+        {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException
+    {
+        if (length == 0)
+        {
+            return 0;
+        }
+        if (position == limit && !fill())
+        {
+            return -1;
+        }
+        int k = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, b, offset, k);
+        position += k;
+        return k;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = 0;
+        while (skipped < n && (position < limit || fill()))
+        {
+            int k = (int) Math.min(n - skipped, limit - position);
+            position += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    /**
+     * Bytes already decoded and waiting to be read
+     */
+    @Override
+    public int available()
+    {
+        return limit - position;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit)
+    {
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            codes.close();
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    // Decode phrases until the buffer is full, the stream ends or the next code would have to be waited for; false if
+    // nothing more is left, EOFException if the input ended before the stop code
+    private boolean fill() throws IOException
+    {
+        position = 0;
+        limit = 0;
+        try
+        {
+            while (!ended)
+            {
+                if (pendingLength == 0)
+                {
+                    pendingLength = codebook.next(codes);
+                    if (pendingLength < 0)
+                    {
+                        ended = true;
+                        truncated = pendingLength == DecoderCodebook.END;
+                        break;
+                    }
+                }
+                if (limit + pendingLength > buffer.length)
+                {
+                    if (limit > 0)
+                    {
+                        // Decode it on the next fill
+                        break;
+                    }
+                    buffer = new byte[pendingLength];
+                }
+                limit = codebook.decodeNext(buffer, limit);
+                pendingLength = 0;
+                if (!codes.ready(NEXT_CODE_BITS))
+                {
+                    // Hand over what is decoded rather than wait for more input
+                    break;
+                }
+            }
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Corrupt LZW stream: " + e.getMessage(), e);
+        }
+        if (limit == 0 && truncated)
+        {
+            throw new EOFException("Input ended before the stop code");
+        }
+        return limit > 0;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * LZWOutputStream - Compresses everything written to it into the wrapped stream, in the same format as
+ * {@link LZWTool#compress}. The header goes out on construction, and the encoder state carries over from one write to
+ * the next, so a payload can be streamed through in pieces of any size.
+ */
+public class LZWOutputStream extends FilterOutputStream
+{
+    private final EncoderCodebook codebook;
+    private final BitOutput codes;
+    private boolean finished;
+
+    public LZWOutputStream(OutputStream out, int minW, int maxW, String policy, List<String> alphabet)
+            throws IOException
+    {
+        this(out, minW, maxW, policy, alphabet, null, false);
+    }
+
+    /**
+     * Compress with the codebook also seeded from {@code dictionary}, which may be null, and with bytes outside the
+     * alphabet sent as literals if {@code escapes} is set
+     */
+    public LZWOutputStream(OutputStream out, int minW, int maxW, String policy, List<String> alphabet,
+                           Dictionary dictionary, boolean escapes) throws IOException
+    {
+        super(out);
+        int policyByte = Codebook.policyCode(policy) | (escapes ? LZWTool.ESCAPE : 0);
+        codebook = LZWTool.newEncoder(minW, maxW, policyByte, alphabet, dictionary);
+        codes = new BitOutput(out);
+        try
+        {
+            LZWTool.writeHeader(codes, minW, maxW, policyByte, alphabet, dictionary);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        ensureOpen();
+        try
+        {
+            codebook.encode(b & 0xff, codes);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException
+    {
+        ensureOpen();
+        try
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                codebook.encode(b[i] & 0xff, codes);
+            }
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Push the codes completed so far to the wrapped stream. The current match and the bits of a partial byte are
+     * held back, since later input may still extend them.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        try
+        {
+            codes.flushBytes();
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * End the compressed stream with the pending code and the stop code, without closing the wrapped stream; nothing
+     * more can be written
+     */
+    public void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        finished = true;
+        try
+        {
+            codebook.finish(codes);
+            codes.flush();
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (finished)
+        {
+            throw new IOException("Stream finished");
+        }
+    }
+}
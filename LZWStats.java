@@ -0,0 +1,153 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * LZWStats - Metrics of one compress or expand run for {@code --stats}, printed to stderr as one line of JSON.
+ * Codebooks keep plain field counters while they code and hand them over once per stream, at its end, and only when
+ * a report is {@link #active}; phases are timed by the caller between its steps.
+ */
+public class LZWStats
+{
+    /**
+     * Report the codebooks add to, or null when {@code --stats} is off
+     */
+    static volatile LZWStats active;
+
+    private final String mode;
+    private final long start = System.nanoTime();
+
+    private long inputBytes;
+    private long outputBytes;
+
+    // Sums over every stream (or block) coded
+    private long streams;
+    private long codes;
+    private long codedBytes;
+    private long widthIncreases;
+    private long resets;
+    private long evictions;
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();  // nanoseconds spent in each phase
+    private String phase;
+    private long phaseStart;
+
+    public LZWStats(String mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Add the counters of one finished stream
+     *
+     * @param bytes bytes the codes stand for
+     */
+    synchronized void add(long codes, long bytes, int widthIncreases, int resets, long evictions)
+    {
+        streams++;
+        this.codes += codes;
+        this.codedBytes += bytes;
+        this.widthIncreases += widthIncreases;
+        this.resets += resets;
+        this.evictions += evictions;
+    }
+
+    /**
+     * End the current phase, if any, and start timing {@code name}
+     */
+    public void phase(String name)
+    {
+        long now = System.nanoTime();
+        if (phase != null)
+        {
+            phases.merge(phase, now - phaseStart, Long::sum);
+        }
+        phase = name;
+        phaseStart = now;
+    }
+
+    public void setInputBytes(long inputBytes)
+    {
+        this.inputBytes = inputBytes;
+    }
+
+    public void setOutputBytes(long outputBytes)
+    {
+        this.outputBytes = outputBytes;
+    }
+
+    /**
+     * Wrap {@code in} so every byte read from it is counted as input
+     */
+    public InputStream countInput(InputStream in)
+    {
+        return new FilterInputStream(in)
+        {
+            @Override
+            public int read() throws IOException
+            {
+                int b = super.read();
+                if (b >= 0)
+                {
+                    inputBytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int offset, int length) throws IOException
+            {
+                int k = super.read(b, offset, length);
+                if (k > 0)
+                {
+                    inputBytes += k;
+                }
+                return k;
+            }
+        };
+    }
+
+    /**
+     * End the last phase and format the report. The ratio is compressed over uncompressed size in either mode, and
+     * MB/s counts uncompressed bytes over the whole run.
+     */
+    public synchronized String toJson()
+    {
+        phase(null);
+        long nanos = System.nanoTime() - start;
+        long original = mode.equals("expand") ? outputBytes : inputBytes;
+        long compressed = mode.equals("expand") ? inputBytes : outputBytes;
+
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"mode\":\"").append(mode).append('"');
+        json.append(",\"inputBytes\":").append(inputBytes);
+        json.append(",\"outputBytes\":").append(outputBytes);
+        json.append(",\"ratio\":").append(format(original == 0 ? 0 : (double) compressed / original));
+        json.append(",\"streams\":").append(streams);
+        json.append(",\"codes\":").append(codes);
+        json.append(",\"meanMatchLength\":").append(format(codes == 0 ? 0 : (double) codedBytes / codes));
+        json.append(",\"widthIncreases\":").append(widthIncreases);
+        json.append(",\"resets\":").append(resets);
+        json.append(",\"evictions\":").append(evictions);
+        json.append(",\"phaseMillis\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : phases.entrySet())
+        {
+            json.append(separator).append('"').append(entry.getKey()).append("\":")
+                    .append(format(entry.getValue() / 1e6));
+            separator = ",";
+        }
+        json.append('}');
+        json.append(",\"totalMillis\":").append(format(nanos / 1e6));
+        json.append(",\"mbPerSecond\":").append(format(original * 1e3 / Math.max(nanos, 1)));
+        return json.append('}').toString();
+    }
+
+    private static String format(double value)
+    {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+}
@@ -1,4 +1,9 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -7,6 +12,47 @@ import java.util.*;
  */
 public class LZWTool
 {
+    /**
+     * Size of the buffer expand() decodes phrases into
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Largest direct buffer used when writing to an --out file
+     */
+    private static final int MAX_FILE_BUFFER_SIZE = 1 << 22;
+
+    /**
+     * Chunks per ring, and bytes per chunk, between the stages of a pipelined compress
+     */
+    private static final int PIPE_CHUNKS = 8;
+
+    private static final int PIPE_CHUNK_SIZE = 1 << 18;
+
+    /**
+     * Low bits of the header's policy byte hold the policy code; the high bits flag container formats
+     */
+    static final int POLICY_MASK = 0x0f;
+
+    /**
+     * Header flag: the code stream is split into independently coded blocks, see {@link BlockCodec}
+     */
+    static final int BLOCK_FRAMED = 0x80;
+
+    /**
+     * Header flag: a block-framed file that ends with an index of its blocks, for expanding a byte range
+     */
+    static final int SEEKABLE = 0x40;
+
+    /**
+     * Header flag: the codebook is also seeded from a {@link Dictionary}, named after the alphabet by ID and hash
+     */
+    static final int DICTIONARY = 0x20;
+
+    /**
+     * Header flag: bytes outside the alphabet are sent as literals after an escape code instead of skipped
+     */
+    static final int ESCAPE = 0x10;
 
     //    private static boolean DEBUG = false;
 //    private static void printCodebook(Map<?, ?> codebook, String name) {
@@ -41,6 +87,19 @@ public class LZWTool
         int maxW = 16;
         String policy = "freeze";
         String alphabetPath=null;
+        String inputPath = null;
+        String outputPath = null;
+        int threads = 0;        // 0 until given: one thread, or one per core for archives
+        String member = null;
+        int blockSize = 0;
+        boolean pipeline = false;
+        boolean seekable = false;
+        String range = null;
+        String dictionaryPath = null;
+        boolean escapes = false;
+        boolean stats = false;
+        String tracePath = null;
+        int traceInterval = RatioTrace.DEFAULT_INTERVAL;
 
         for (int i = 0; i < args.length; i++)
         {
@@ -61,6 +120,45 @@ public class LZWTool
                 case "--alphabet":
                     alphabetPath = args[++i];
                     break;
+                case "--in":
+                    inputPath = args[++i];
+                    break;
+                case "--out":
+                    outputPath = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--block-size":
+                    blockSize = BlockCodec.parseSize(args[++i]);
+                    break;
+                case "--member":
+                    member = args[++i];
+                    break;
+                case "--dict":
+                    dictionaryPath = args[++i];
+                    break;
+                case "--escape":
+                    escapes = true;
+                    break;
+                case "--seekable":
+                    seekable = true;
+                    break;
+                case "--range":
+                    range = args[++i];
+                    break;
+                case "--pipeline":
+                    pipeline = true;
+                    break;
+                case "--stats":
+                    stats = true;
+                    break;
+                case "--trace":
+                    tracePath = args[++i];
+                    break;
+                case "--trace-interval":
+                    traceInterval = RatioTrace.parseInterval(args[++i]);
+                    break;
                 default:
                     System.err.println("Unknown argument: " + args[i]);
                     System.exit(2);
@@ -80,6 +178,46 @@ public class LZWTool
             System.exit(1);
         }
 
+        if (threads < 0)
+        {
+            System.err.println("Error: threads must be >= 1");
+            System.exit(1);
+        }
+        boolean archiveMode = mode.equals("archive") || mode.equals("extract") || mode.equals("list");
+        if (threads == 0)
+        {
+            threads = archiveMode || mode.equals("train") ? Runtime.getRuntime().availableProcessors() : 1;
+        }
+
+        if (pipeline && (threads > 1 || blockSize > 0 || seekable))
+        {
+            System.err.println("Error: --pipeline cannot be combined with --threads, --block-size or --seekable");
+            System.exit(1);
+        }
+
+        if (dictionaryPath != null && archiveMode)
+        {
+            System.err.println("Error: --dict is not supported for archives");
+            System.exit(1);
+        }
+
+        if (stats && !(mode.equals("compress") || (mode.equals("expand") && range == null)))
+        {
+            System.err.println("Error: --stats is only supported for compress and expand without --range");
+            System.exit(1);
+        }
+
+        if (tracePath != null && (!mode.equals("compress") || threads > 1 || blockSize > 0 || seekable))
+        {
+            System.err.println("Error: --trace is only supported for compressing a single stream");
+            System.exit(1);
+        }
+
+        // Splitting into blocks is what lets more than one thread work on a file, and a range be expanded alone
+        if ((threads > 1 || seekable) && blockSize == 0)
+        {
+            blockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+        }
 
 //        InputStream originalIn = System.in;
 //        PrintStream originalOut = System.out;
@@ -87,6 +225,14 @@ public class LZWTool
         // Execute compression or expansion
         try
         {
+            LZWStats report = null;
+            if (stats)
+            {
+                report = new LZWStats(mode);
+                report.phase("setup");
+                System.setIn(report.countInput(System.in));
+            }
+            Dictionary dictionary = dictionaryPath == null ? null : Dictionary.load(Paths.get(dictionaryPath));
 
 //            FileInputStream fileIn = new FileInputStream(inputFile);
 //            System.setIn(fileIn);
@@ -109,15 +255,148 @@ public class LZWTool
                     System.err.println("Error: --alphabet is required for compression");
                     System.exit(1);
                 }
-                compress(minW, maxW, policy, alphabetPath);
+                List<String> alphabet = readAlphabet(alphabetPath);
+                BitInput in;
+                if (AutoPolicy.isAuto(policy))
+                {
+                    if (report != null)
+                    {
+                        report.phase("sample");
+                    }
+                    // Race the policies on a sample; standard input is replayed from the bytes already read, which
+                    // are all of it that is known to be there
+                    byte[] sample;
+                    long inputSize;
+                    if (inputPath != null)
+                    {
+                        sample = AutoPolicy.sample(Paths.get(inputPath));
+                        inputSize = Files.size(Paths.get(inputPath));
+                        in = openInput(inputPath);
+                    }
+                    else
+                    {
+                        sample = System.in.readNBytes(AutoPolicy.SAMPLE_SIZE);
+                        inputSize = sample.length;
+                        in = new BitInput(new SequenceInputStream(new ByteArrayInputStream(sample), System.in));
+                    }
+                    AutoPolicy.Choice choice = AutoPolicy.choose(sample, sample.length, inputSize, minW, maxW,
+                            alphabet, dictionary, escapes, policy.equals("auto-speed"));
+                    policy = choice.policy;
+                    maxW = choice.maxW;
+                }
+                else
+                {
+                    in = openInput(inputPath);
+                }
+                BitOutput out = openOutput(outputPath, in.length());
+                startCoding(report, "encode");
+                if (blockSize > 0)
+                {
+                    BlockCodec.compress(minW, maxW, policy, alphabet, in, out, threads, blockSize, seekable,
+                            dictionary, escapes);
+                }
+                else
+                {
+                    RatioTrace trace = tracePath == null ? null : new RatioTrace(Paths.get(tracePath), traceInterval);
+                    if (pipeline)
+                    {
+                        compressPipelined(minW, maxW, policy, alphabet, dictionary, escapes, trace, in, out);
+                    }
+                    else
+                    {
+                        compress(minW, maxW, policy, alphabet, dictionary, escapes, trace, in, out);
+                    }
+                    if (trace != null)
+                    {
+                        trace.close();
+                    }
+                }
+                finishCoding(report, in, out);
+            }
+            else if (mode.equals("expand") && range != null)
+            {
+                if (inputPath == null)
+                {
+                    System.err.println("Error: --range needs a seekable --in file");
+                    System.exit(1);
+                }
+                int colon = range.indexOf(':');
+                if (colon < 0)
+                {
+                    System.err.println("Error: --range must be start:length");
+                    System.exit(1);
+                }
+                long start = Long.parseLong(range.substring(0, colon));
+                long length = Long.parseLong(range.substring(colon + 1));
+                try (FileChannel channel = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ))
+                {
+                    BitOutput out = openOutput(outputPath, length);
+                    BlockCodec.expandRange(channel, start, length, dictionary, out);
+                    out.close();
+                }
             }
             else if (mode.equals("expand"))
             {
-                expand();
+                BitInput in = openInput(inputPath);
+                BitOutput out = openOutput(outputPath, in.length());
+                startCoding(report, "decode");
+                expand(in, out, threads, dictionary);
+                finishCoding(report, in, out);
+            }
+            else if (mode.equals("archive"))
+            {
+                if (alphabetPath == null || inputPath == null || outputPath == null)
+                {
+                    System.err.println("Error: --alphabet, --in and --out are required to archive");
+                    System.exit(1);
+                }
+                LZWArchive.create(Paths.get(inputPath), Paths.get(outputPath), minW, maxW, policy,
+                        readAlphabet(alphabetPath), escapes, threads);
+            }
+            else if (mode.equals("train"))
+            {
+                if (alphabetPath == null || inputPath == null || outputPath == null)
+                {
+                    System.err.println("Error: --alphabet, --in and --out are required to train a dictionary");
+                    System.exit(1);
+                }
+                DictionaryTrainer.train(Paths.get(inputPath), readAlphabet(alphabetPath), minW, maxW, threads)
+                        .save(Paths.get(outputPath));
+            }
+            else if (mode.equals("extract"))
+            {
+                if (inputPath == null)
+                {
+                    System.err.println("Error: --in is required to extract");
+                    System.exit(1);
+                }
+                if (member != null)
+                {
+                    BitOutput out = openOutput(outputPath, -1);
+                    LZWArchive.extract(Paths.get(inputPath), member, out);
+                    out.close();
+                }
+                else
+                {
+                    LZWArchive.extractAll(Paths.get(inputPath), Paths.get(outputPath == null ? "." : outputPath),
+                            threads);
+                }
+            }
+            else if (mode.equals("list"))
+            {
+                if (inputPath == null)
+                {
+                    System.err.println("Error: --in is required to list");
+                    System.exit(1);
+                }
+                for (LZWArchive.Member entry : LZWArchive.list(Paths.get(inputPath)))
+                {
+                    System.out.println(entry.size + "\t" + entry.compressedSize + "\t" + entry.name);
+                }
             }
             else
             {
-                System.err.println("Error: mode must be 'compress' or 'expand'");
+                System.err.println("Error: mode must be 'compress', 'expand', 'archive', 'extract', 'list' or 'train'");
                 System.exit(1);
             }
         }
@@ -141,15 +420,78 @@ public class LZWTool
 //        }
     }
 
+    /**
+     * Start the coding phase of a {@code --stats} report, if there is one; codebooks report to it from here on
+     */
+    private static void startCoding(LZWStats report, String phase)
+    {
+        if (report != null)
+        {
+            report.phase(phase);
+            LZWStats.active = report;
+        }
+    }
+
+    /**
+     * Close both ends, then print the {@code --stats} report, if there is one, to standard error
+     */
+    private static void finishCoding(LZWStats report, BitInput in, BitOutput out)
+    {
+        if (report != null)
+        {
+            report.phase("flush");
+        }
+        out.close();
+        in.close();
+        if (report != null)
+        {
+            LZWStats.active = null;
+            if (in.length() >= 0)
+            {
+                report.setInputBytes(in.length());
+            }
+            report.setOutputBytes(out.bitsWritten() / 8);
+            System.err.println(report.toJson());
+        }
+    }
+
+    /**
+     * Memory-map the input file, or read standard input if no path is given
+     */
+    private static BitInput openInput(String path) throws IOException
+    {
+        if (path == null)
+        {
+            return new BitInput(System.in);
+        }
+        return new BitInput(FileChannel.open(Paths.get(path), StandardOpenOption.READ));
+    }
+
+    /**
+     * Write the output file through a direct buffer sized from the input, or standard output if no path is given
+     */
+    private static BitOutput openOutput(String path, long inputLength) throws IOException
+    {
+        if (path == null)
+        {
+            return new BitOutput(System.out);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        int bufferSize = (int) Math.min(Math.max(inputLength, 0), MAX_FILE_BUFFER_SIZE);
+        return new BitOutput(channel, bufferSize);
+    }
+
     /**
      * Read alphabet from file
      */
-    private static List<String> readAlphabet(String path) throws IOException
+    public static List<String> readAlphabet(String path) throws IOException
     {
         List<String> alphabet = new ArrayList<>();
         Set<String> seen = new LinkedHashSet<>();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(path)))
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8)))
         {
             String line;
             while ((line = reader.readLine()) != null)
@@ -168,600 +510,399 @@ public class LZWTool
     /**
      * Write header to compressed file
      */
-    private static void writeHeader(int minW, int maxW, String policy, List<String> alphabet)
+    static void writeHeader(BitOutput out, int minW, int maxW, int policyByte, List<String> alphabet)
+    {
+        writeHeader(out, minW, maxW, policyByte, alphabet, null);
+    }
+
+    /**
+     * Write header to compressed file, naming the dictionary the codebook is seeded from, if any
+     */
+    static void writeHeader(BitOutput out, int minW, int maxW, int policyByte, List<String> alphabet,
+                            Dictionary dictionary)
     {
+        if (dictionary != null)
+        {
+            policyByte |= DICTIONARY;
+        }
+
         // Write minW (1 byte)
-        BinaryStdOut.write(minW, 8);
+        out.write(minW, 8);
 
         // Write maxW (1 byte)
-        BinaryStdOut.write(maxW, 8);
-
-        // Write policy as integer (1 byte)
-        int policyCode = 0;
-        switch (policy)
-        {
-            case "freeze":
-                policyCode = 0;
-                break;
-            case "reset":
-                policyCode = 1;
-                break;
-            case "lru":
-                policyCode = 2;
-                break;
-            case "lfu":
-                policyCode = 3;
-                break;
-        }
-        BinaryStdOut.write(policyCode, 8);
+        out.write(maxW, 8);
+
+        // Write policy as integer (1 byte), with any format flags in its high bits
+        out.write(policyByte, 8);
 
         // Write alphabet size (2 bytes)
-        BinaryStdOut.write(alphabet.size(), 16);
+        out.write(alphabet.size(), 16);
 
         // Write each alphabet symbol (1 byte per symbol)
         for (String symbol : alphabet)
         {
-            BinaryStdOut.write(symbol.charAt(0), 8);
+            out.write(symbol.charAt(0), 8);
+        }
+
+        // Dictionary ID and hash (4 bytes each)
+        if (dictionary != null)
+        {
+            out.write(dictionary.id(), 32);
+            out.write(dictionary.hash(), 32);
         }
     }
 
     /**
      * Read header from compressed file
      */
-    private static HeaderInfo readHeader()
+    static HeaderInfo readHeader(BitInput in)
     {
         HeaderInfo info = new HeaderInfo();
 
         // Read minW
-        info.minW = BinaryStdIn.readInt(8);
+        info.minW = in.readInt(8);
 
         // Read maxW
-        info.maxW = BinaryStdIn.readInt(8);
-
-        // Read policy
-        int policyCode = BinaryStdIn.readInt(8);
-        switch (policyCode)
-        {
-            case 0:
-                info.policy = "freeze";
-                break;
-            case 1:
-                info.policy = "reset";
-                break;
-            case 2:
-                info.policy = "lru";
-                break;
-            case 3:
-                info.policy = "lfu";
-                break;
+        info.maxW = in.readInt(8);
+
+        // Read policy and format flags
+        int policyByte = in.readInt(8);
+        info.policy = Codebook.policyName(policyByte & POLICY_MASK);
+        info.flags = policyByte & ~POLICY_MASK;
+        if ((info.flags & ~(BLOCK_FRAMED | SEEKABLE | DICTIONARY | ESCAPE)) != 0
+                || (info.flags & (BLOCK_FRAMED | SEEKABLE)) == SEEKABLE)
+        {
+            throw new RuntimeException("Unsupported format flags: " + info.flags);
         }
 
         // Read alphabet size
-        int alphabetSize = BinaryStdIn.readInt(16);
+        int alphabetSize = in.readInt(16);
 
         // Read alphabet
         info.alphabet = new ArrayList<>();
         for (int i = 0; i < alphabetSize; i++)
         {
-            char c = BinaryStdIn.readChar(8);
+            char c = (char) in.readInt(8);
             info.alphabet.add(String.valueOf(c));
         }
 
+        // Read dictionary ID and hash
+        if ((info.flags & DICTIONARY) != 0)
+        {
+            info.dictionaryId = in.readInt(32);
+            info.dictionaryHash = in.readInt(32);
+        }
+
         return info;
     }
 
     /**
-     * Compress input using LZW algorithm
+     * Compress standard input to standard output using LZW algorithm
      */
     public static void compress(int minW, int maxW, String policy, String alphabetPath) throws IOException
     {
-        // Read alphabet from file
-        List<String> alphabet = readAlphabet(alphabetPath);
-
-        // Write header
-        writeHeader(minW, maxW, policy, alphabet);
-
-        // Initialize compression state
-        int W = minW;
-        int maxCodeLimit = (1 << maxW);
-
-        int stopCode = maxCodeLimit - 1; // 预留最大值为stopCode（如maxW=4时为15）
+        BitOutput out = new BitOutput(System.out);
+        compress(minW, maxW, policy, readAlphabet(alphabetPath), new BitInput(System.in), out);
+        out.close();
+    }
 
+    /**
+     * Compress {@code in} to {@code out} using LZW algorithm. The output is flushed but neither stream is closed;
+     * independent calls share no state and may run concurrently.
+     */
+    public static void compress(int minW, int maxW, String policy, String alphabetPath, BitInput in, BitOutput out)
+            throws IOException
+    {
+        compress(minW, maxW, policy, readAlphabet(alphabetPath), in, out);
+    }
 
-        // Build initial codebook: use HashMap for pattern->code so we can remove old patterns when evicting
-        Map<String, Integer> codebook = new HashMap<>();
-        Map<Integer, String> reverseCodebook = new HashMap<>();
-        int nextCode = 0;
+    /**
+     * Compress {@code in} to {@code out} with an alphabet that has already been read
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, BitInput in, BitOutput out)
+    {
+        compress(minW, maxW, policy, alphabet, null, in, out);
+    }
 
-        for (String symbol : alphabet)
-        {
-            codebook.put(symbol, nextCode);
-            reverseCodebook.put(nextCode, symbol);
-            nextCode++;
-            if (nextCode >= stopCode) {
-                break; // 避免码表占用stopCode
-            }
-        }
+    /**
+     * Compress {@code in} to {@code out} with the codebook also seeded from {@code dictionary}, which may be null.
+     * The file then expands only when the same dictionary is supplied.
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, Dictionary dictionary,
+                                BitInput in, BitOutput out)
+    {
+        compress(minW, maxW, policy, alphabet, dictionary, false, in, out);
+    }
 
-        // 打印初始Codebook
-//        printCodebook(reverseCodebook, "初始化时");
+    /**
+     * Compress as above, sending bytes outside the alphabet as literals after an escape code if {@code escapes} is
+     * set, so nothing is lost
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, Dictionary dictionary,
+                                boolean escapes, BitInput in, BitOutput out)
+    {
+        compress(minW, maxW, policy, alphabet, dictionary, escapes, null, in, out);
+    }
 
-        // Tracking for eviction policies
-        Map<Integer, Integer> frequency = new HashMap<>();
-        Map<Integer, Integer> lastUsed = new HashMap<>();
-        int timestamp = 1;
+    /**
+     * Compress as above, sending ratio timeline samples to {@code trace} if it is not null
+     */
+    public static void compress(int minW, int maxW, String policy, List<String> alphabet, Dictionary dictionary,
+                                boolean escapes, RatioTrace trace, BitInput in, BitOutput out)
+    {
+        int policyByte = Codebook.policyCode(policy) | (escapes ? ESCAPE : 0);
+        EncoderCodebook codebook = newEncoder(minW, maxW, policyByte, alphabet, dictionary);
+        codebook.trace(trace);
 
-        for (int i = 0; i < alphabet.size(); i++)
-        {
-            frequency.put(i, 0);
-            lastUsed.put(i, 0);
-        }
+        // Write header
+        writeHeader(out, minW, maxW, policyByte, alphabet, dictionary);
 
-        // Process input
-        StringBuilder current = new StringBuilder();
+        encode(codebook, in, out);
+        out.flush();
+    }
 
-        StringBuffer sb = new StringBuffer();
+    /**
+     * Compress like {@link #compress(int, int, String, List, BitInput, BitOutput)}, but with reading, encoding and
+     * writing on three threads joined by {@link ChunkPipe} rings, so stalls on a slow input or output overlap with
+     * codebook work instead of adding to it. The calling thread encodes. The output is flushed but neither stream is
+     * closed.
+     */
+    public static void compressPipelined(int minW, int maxW, String policy, List<String> alphabet,
+                                         Dictionary dictionary, boolean escapes, RatioTrace trace, BitInput in,
+                                         BitOutput out)
+            throws InterruptedException
+    {
+        ChunkPipe input = new ChunkPipe(PIPE_CHUNKS, PIPE_CHUNK_SIZE);
+        ChunkPipe output = new ChunkPipe(PIPE_CHUNKS, PIPE_CHUNK_SIZE);
 
-        while (!BinaryStdIn.isEmpty())
+        Thread reader = new Thread(() ->
         {
-            char c = BinaryStdIn.readChar(8);
-            StringBuilder next = new StringBuilder(current).append(c);
-            String nextStr = next.toString();
-
-            //System.err.println("当前字符: " + current);
-            //System.err.println("下一个字符: " + next);
-
-            if (codebook.containsKey(nextStr))
-            {
-                current = next;
-            }
-            else
+            try
             {
-                // Output code for current
-                if (current.length() > 0)
+                while (true)
                 {
-                    String currentStr = current.toString();
-                    Integer code = codebook.get(currentStr);
-                    if (code != null)
+                    byte[] chunk = input.claim();
+                    // Hand on each read as it arrives rather than wait for a slow source to fill the chunk
+                    int length = in.readSome(chunk, 0, chunk.length);
+                    if (length == 0)
                     {
-                        sb.append(code);
-                        //System.err.println("编码:"+sb.toString());
-                        BinaryStdOut.write(code, W);
-                        frequency.put(code, frequency.getOrDefault(code, 0) + 1);
-                        lastUsed.put(code, timestamp++);
+                        break;
                     }
+                    input.publish(length);
                 }
+                input.close();
+            }
+            catch (Throwable e)
+            {
+                input.fail(e);
+            }
+        }, "lzw-reader");
 
-                // Try to add new pattern
-                //if (nextCode < maxCodeLimit)
-                if (nextCode < stopCode)
-                {
-                    // Increase width if needed BEFORE adding the new code
-                    if (nextCode == (1 << W) && W < maxW)
-                    {
-                        W++;
-                    }
-
-                    codebook.put(nextStr, nextCode);
-                    reverseCodebook.put(nextCode, nextStr);
-                    frequency.put(nextCode, 0);
-                    lastUsed.put(nextCode, timestamp++);
-                    nextCode++;
-
-                    // 打印更新后的Codebook
-//                    printCodebook(reverseCodebook, "添加新码表后");
-                }
-                else
+        Thread writer = new Thread(() ->
+        {
+            try
+            {
+                for (int length = output.take(); length >= 0; length = output.take())
                 {
-                    // Codebook full - apply eviction policy
-                    if (policy.equals("reset"))
-                    {
-                        // Reset to alphabet only
-                        codebook = new HashMap<>();
-                        reverseCodebook.clear();
-                        frequency.clear();
-                        lastUsed.clear();
-                        nextCode = 0;
-
-                        for (String symbol : alphabet)
-                        {
-                            codebook.put(symbol, nextCode);
-                            reverseCodebook.put(nextCode, symbol);
-                            frequency.put(nextCode, 0);
-                            lastUsed.put(nextCode, timestamp++);
-                            nextCode++;
-                        }
-
-                        W = minW;
-
-                        // Add the new pattern
-                        if (nextCode == (1 << W) && W < maxW)
-                        {
-                            W++;
-                        }
-
-                        codebook.put(nextStr, nextCode);
-                        reverseCodebook.put(nextCode, nextStr);
-                        frequency.put(nextCode, 0);
-                        lastUsed.put(nextCode, timestamp++);
-                        nextCode++;
-
-//                        printCodebook(reverseCodebook, "reset码表后");
-                    }
-                    else if (policy.equals("lru"))
-                    {
-                        // Find LRU code (excluding alphabet)
-                        int lruCode = -1;
-                        int minTime = Integer.MAX_VALUE;
-
-                        for (int i = alphabet.size(); i < nextCode; i++)
-                        {
-                            if (reverseCodebook.containsKey(i))
-                            {
-                                int time = lastUsed.getOrDefault(i, 0);
-                                if (time < minTime)
-                                {
-                                    minTime = time;
-                                    lruCode = i;
-                                }
-                            }
-                        }
-
-                        if (lruCode >= 0)
-                        {
-                            String oldPattern = reverseCodebook.get(lruCode);
-                            // remove old pattern from pattern->code map to keep consistency
-                            if (oldPattern != null)
-                            {
-                                codebook.remove(oldPattern);
-                            }
-
-                            // Replace with new pattern
-                            codebook.put(nextStr, lruCode);
-                            reverseCodebook.put(lruCode, nextStr);
-                            frequency.put(lruCode, 0);
-                            lastUsed.put(lruCode, timestamp++);
-                        }
-//                        printCodebook(reverseCodebook, "lru更新码表后");
-                    }
-                    else if (policy.equals("lfu"))
-                    {
-                        // Find LFU code (excluding alphabet)
-                        int lfuCode = -1;
-                        int minFreq = Integer.MAX_VALUE;
-
-                        for (int i = alphabet.size(); i < nextCode; i++)
-                        {
-                            if (reverseCodebook.containsKey(i))
-                            {
-                                int freq = frequency.getOrDefault(i, 0);
-                                if (freq < minFreq)
-                                {
-                                    minFreq = freq;
-                                    lfuCode = i;
-                                }
-                            }
-                        }
-
-                        if (lfuCode >= 0)
-                        {
-                            String oldPattern = reverseCodebook.get(lfuCode);
-                            if (oldPattern != null)
-                            {
-                                codebook.remove(oldPattern);
-                            }
-
-                            // Replace with new pattern
-                            codebook.put(nextStr, lfuCode);
-                            reverseCodebook.put(lfuCode, nextStr);
-                            frequency.put(lfuCode, 0);
-                            lastUsed.put(lfuCode, timestamp++);
-                        }
-//                        printCodebook(reverseCodebook, "lfu更新码表后");
-                    }
-                    // else freeze - do nothing
+                    out.write(output.current(), 0, length);
+                    output.release();
                 }
-
-                current = new StringBuilder().append(c);
+                output.release();
+                out.flush();
             }
+            catch (Throwable e)
+            {
+                output.fail(e);
+            }
+        }, "lzw-writer");
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+
+        try
+        {
+            // compress() flushes its output, which publishes the last partial chunk
+            compress(minW, maxW, policy, alphabet, dictionary, escapes, trace, new BitInput(input.input()),
+                    new BitOutput(output.output()));
+            output.close();
         }
+        catch (Throwable e)
+        {
+            // Unblock whichever stage is waiting on the encoder, or joining the writer would never return
+            input.fail(e);
+            output.fail(e);
+            throw e;
+        }
+        finally
+        {
+            writer.join();
+        }
+        reader.join();
 
-        // Output final code
-        if (current.length() > 0)
+        Throwable failure = output.failure() != null ? output.failure() : input.failure();
+        if (failure != null)
         {
-            Integer code = codebook.get(current.toString());
-            if (code != null)
-            {
-                BinaryStdOut.write(code, W);
-                sb.append(code);
-            }
+            throw new RuntimeException("Pipelined compression failed", failure);
         }
-        //System.err.println("编码:"+sb.toString());
-        // Write stop code (use maximum possible value for current width as EOF marker)
-        stopCode = (1 << W) - 1;
-        BinaryStdOut.write(stopCode, W);
+    }
 
-        BinaryStdOut.close();
+    /**
+     * Write the code stream for {@code in}, ending with the stop code, with a codebook at the start of a stream
+     *
+     * @return the width the stop code was written at
+     */
+    static int encode(EncoderCodebook codebook, BitInput in, BitOutput out)
+    {
+        while (in.hasBits(8))
+        {
+            codebook.encode(in.readInt(8), out);
+        }
+        return codebook.finish(out);
     }
 
     /**
-     * Expand compressed input
+     * Expand standard input to standard output
      */
     public static void expand() throws IOException
     {
-        // Read header
-        HeaderInfo info = readHeader();
+        BitOutput out = new BitOutput(System.out);
+        expand(new BitInput(System.in), out);
+        out.close();
+    }
 
-        int W = info.minW;
-        int maxCodeLimit = (1 << info.maxW);
+    /**
+     * Expand {@code in} to {@code out}. The output is flushed but neither stream is closed; independent calls share no
+     * state and may run concurrently.
+     */
+    public static void expand(BitInput in, BitOutput out)
+    {
+        expand(in, out, 1);
+    }
 
-        // Build initial codebook
-        Map<Integer, String> codebook = new HashMap<>();
-        int nextCode = 0;
+    /**
+     * Expand {@code in} to {@code out}, decoding the blocks of a block-framed file on {@code threads} workers with at
+     * most two blocks per worker held in memory. Other files are expanded on the calling thread.
+     */
+    public static void expand(BitInput in, BitOutput out, int threads)
+    {
+        expand(in, out, threads, null);
+    }
 
-        for (String symbol : info.alphabet)
+    /**
+     * Expand as above, with the dictionary the file was compressed with, if any
+     *
+     * @throws RuntimeException if the file needs a dictionary and {@code dictionary} is not the one it names
+     * @throws UncheckedIOException wrapping an {@link EOFException} if the input ends before the stop code; what was
+     * decoded up to there is written to {@code out} first
+     */
+    public static void expand(BitInput in, BitOutput out, int threads, Dictionary dictionary)
+    {
+        // Read header
+        HeaderInfo info = readHeader(in);
+        useDictionary(info, dictionary);
+        if ((info.flags & BLOCK_FRAMED) != 0)
         {
-            codebook.put(nextCode++, symbol);
+            BlockCodec.expand(info, in, out, threads, 2 * threads);
+            return;
         }
-        // 打印初始Codebook
-//        printCodebook(codebook, "初始化时");
-
-        // Tracking for eviction policies
-        Map<Integer, Integer> frequency = new HashMap<>();
-        Map<Integer, Integer> lastUsed = new HashMap<>();
-        int timestamp = 1;
 
-        for (int i = 0; i < info.alphabet.size(); i++)
+        int stopWidth = decode(newDecoder(info), in, out);
+        out.flush();
+        if (stopWidth < 0)
         {
-            frequency.put(i, 0);
-            lastUsed.put(i, 0);
+            throw new UncheckedIOException(new EOFException("Input ended before the stop code"));
         }
+    }
 
-        // Possibly increase width BEFORE reading first code if initial codebook size reaches the current width capacity
-        if (nextCode == (1 << W) && W < info.maxW)
+    /**
+     * Attach the dictionary a header names, checking it is the same one by ID and hash
+     *
+     * @throws RuntimeException if the header names a dictionary and {@code dictionary} does not match it
+     */
+    static void useDictionary(HeaderInfo info, Dictionary dictionary)
+    {
+        if ((info.flags & DICTIONARY) == 0)
         {
-            W++;
+            return;
         }
-        //System.err.println("字典下一code:"+nextCode+"当前码长:"+W);
-
-        // Read first code
-        if (BinaryStdIn.isEmpty())
+        if (dictionary == null || dictionary.id() != info.dictionaryId || dictionary.hash() != info.dictionaryHash)
         {
-            BinaryStdOut.close();
-            return;
+            throw new RuntimeException(String.format("File needs dictionary %d (hash %08x)", info.dictionaryId,
+                    info.dictionaryHash));
         }
-        StringBuffer sbCode = new StringBuffer();
-        StringBuffer sbContent = new StringBuffer();
-
-        int prevCode = BinaryStdIn.readInt(W);
-        sbCode.append(prevCode);
-        //System.err.println("编码:"+sbCode);
-        String prevString = codebook.get(prevCode);
+        info.dictionary = dictionary;
+    }
 
-        if (prevString == null)
+    /**
+     * Encoder codebook for an alphabet, also seeded from {@code dictionary} if it is not null. {@code policyByte} is
+     * the policy code, plus {@link #ESCAPE} for a codebook that sends literals.
+     */
+    static EncoderCodebook newEncoder(int minW, int maxW, int policyByte, List<String> alphabet,
+                                      Dictionary dictionary)
+    {
+        byte[] symbols = Codebook.seedSymbols(alphabet);
+        boolean escapes = (policyByte & ESCAPE) != 0;
+        if (dictionary == null)
         {
-            BinaryStdOut.close();
-            return;
+            return new EncoderCodebook(minW, maxW, policyByte & POLICY_MASK, symbols, null, escapes);
         }
-        sbContent.append(prevString);
-        //System.err.println("内容:"+sbContent);
-
-        BinaryStdOut.write(prevString);
-        frequency.put(prevCode, frequency.getOrDefault(prevCode, 0) + 1);
-        lastUsed.put(prevCode, timestamp++);
+        Dictionary.Seeds seeds = dictionary.seeds(symbols);
+        return new EncoderCodebook(minW, maxW, policyByte & POLICY_MASK, seeds.symbols, seeds.prefixes, escapes);
+    }
 
-        // Process remaining codes
-        while (!BinaryStdIn.isEmpty())
+    /**
+     * Codebook for the settings in a header
+     */
+    static DecoderCodebook newDecoder(HeaderInfo info)
+    {
+        byte[] symbols = Codebook.seedSymbols(info.alphabet);
+        boolean escapes = (info.flags & ESCAPE) != 0;
+        if (info.dictionary == null)
         {
-            // Possibly increase width BEFORE reading the next code so decoder stays in sync with encoder
-            if (nextCode == (1 << W) && W < info.maxW)
-            {
-                W++;
-            }
-            //System.err.println("字典下一code:"+nextCode+"当前码长:"+W);
-            if (nextCode == (1 << W)-1 && W == info.maxW)
-            //if (nextCode == (1 << W) && W == info.maxW)
-            {
-                if (info.policy.equals("reset"))
-                {
-                    W = info.minW;
-                    //System.err.println("字典下一code超出最大范围重新设置码长:"+W);
-                }
-            }
-
-
-            int code;
-            try
-            {
-                code = BinaryStdIn.readInt(W);
-            }
-            catch (NoSuchElementException e)
-            {
-                // End of stream reached
-                break;
-            }
-            sbCode.append(code);
-            //System.err.println("编码:"+sbCode);
-
-            // Check for stop code
-            int stopCode = (1 << W) - 1;
-            if (code == stopCode)
-            {
-                break;
-            }
-
-            String entry;
+            return new DecoderCodebook(info.minW, info.maxW, Codebook.policyCode(info.policy), symbols, null, escapes);
+        }
+        Dictionary.Seeds seeds = info.dictionary.seeds(symbols);
+        return new DecoderCodebook(info.minW, info.maxW, Codebook.policyCode(info.policy), seeds.symbols,
+                seeds.prefixes, escapes);
+    }
 
-            if (codebook.containsKey(code))
-            {
-                entry = codebook.get(code);
-            }
-            else if (code == nextCode)
-            {
-                // Special case: code not yet in codebook
-                entry = prevString + prevString.charAt(0);
-            }
-            else
-            {
-                throw new RuntimeException("Invalid code: " + code);
-            }
-//            sbContent.append(entry);
-//            //System.err.println("内容:"+sbContent);
-//
-//            BinaryStdOut.write(entry);
-//            frequency.put(code, frequency.getOrDefault(code, 0) + 1);
-//            if (code!= nextCode){
-//                lastUsed.put(code, timestamp++);
-//                printCodebook(lastUsed, "current刷新时间戳");
-//            }
-//            printCodebook(lastUsed, "current刷新时间戳");
-            // Add new entry to codebook
-            //if (nextCode < maxCodeLimit)
-            if (nextCode < maxCodeLimit-1)
-            {
-                // Check if we need to increase width BEFORE adding
-                if (nextCode == (1 << W) && W < info.maxW)
-                {
-                    W++;
-                }
+    /**
+     * Write the phrases of one code stream to {@code out}, up to and including its stop code, with a codebook at the
+     * start of a stream
+     *
+     * @return the width the stop code was read at, or -1 if the input ended without one
+     */
+    static int decode(DecoderCodebook codebook, BitInput in, BitOutput out)
+    {
+        // Phrases are written straight into this buffer and flushed in bulk
+        byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        int count = 0;
 
-                String newEntry = prevString + entry.charAt(0);
-                codebook.put(nextCode, newEntry);
-                frequency.put(nextCode, 0);
-                lastUsed.put(nextCode, timestamp++);
-                nextCode++;
-//                printCodebook(codebook, "添加新码表后");
-            }
-            else
+        int length;
+        while ((length = codebook.next(in)) > 0)
+        {
+            if (count + length > buffer.length)
             {
-                // Codebook full - apply eviction policy
-                if (info.policy.equals("reset"))
-                {
-                    // Reset to alphabet only
-                    codebook.clear();
-                    nextCode = 0;
-
-                    for (String symbol : info.alphabet)
-                    {
-                        codebook.put(nextCode, symbol);
-                        frequency.put(nextCode, 0);
-                        lastUsed.put(nextCode, timestamp++);
-                        nextCode++;
-                    }
-
-                    W = info.minW;
-
-                    // Add the new pattern
-                    if (nextCode == (1 << W) && W < info.maxW)
-                    {
-                        W++;
-                    }
-
-                    String newEntry = prevString + entry.charAt(0);
-                    codebook.put(nextCode, newEntry);
-                    frequency.put(nextCode, 0);
-                    lastUsed.put(nextCode, timestamp++);
-                    nextCode++;
-                }
-                else if (info.policy.equals("lru"))
-                {
-                    // Find LRU code (excluding alphabet)
-                    int lruCode = -1;
-                    int minTime = Integer.MAX_VALUE;
-
-                    for (int i = info.alphabet.size(); i < nextCode; i++)
-                    {
-                        if (codebook.containsKey(i))
-                        {
-                            int time = lastUsed.getOrDefault(i, 0);
-                            if (time < minTime)
-                            {
-                                minTime = time;
-                                lruCode = i;
-                            }
-                        }
-                        codebook.remove(lruCode);
-                        if (codebook.containsKey(code))
-                        {
-                            entry = codebook.get(code);
-                        }
-                        else
-                        {
-                            // Special case: code not yet in codebook
-                            entry = prevString + prevString.charAt(0);
-                        }
-
-                        if (lruCode >= 0)
-                        {
-                            String newEntry = prevString + entry.charAt(0);
-                            codebook.put(lruCode, newEntry);
-                            frequency.put(lruCode, 0);
-                            lastUsed.put(lruCode, timestamp);
-                        }
-                    }
-                }
-                else if (info.policy.equals("lfu"))
+                out.write(buffer, 0, count);
+                count = 0;
+                if (length > buffer.length)
                 {
-                    // Find LFU code (excluding alphabet)
-                    int lfuCode = -1;
-                    int minFreq = Integer.MAX_VALUE;
-
-                    for (int i = info.alphabet.size(); i < nextCode; i++)
-                    {
-                        if (codebook.containsKey(i))
-                        {
-                            int freq = frequency.getOrDefault(i, 0);
-                            if (freq < minFreq)
-                            {
-                                minFreq = freq;
-                                lfuCode = i;
-                            }
-                        }
-                    }
-
-                    if (lfuCode >= 0)
-                    {
-                        String newEntry = prevString + entry.charAt(0);
-                        codebook.put(lfuCode, newEntry);
-                        frequency.put(lfuCode, 0);
-                        lastUsed.put(lfuCode, timestamp++);
-                    }
+                    buffer = new byte[length];
                 }
-                // else freeze - do nothing
-            }
-            if (codebook.containsKey(code))
-            {
-                entry = codebook.get(code);
-            }
-            else if (code == nextCode)
-            {
-                // Special case: code not yet in codebook
-                entry = prevString + prevString.charAt(0);
             }
-            else
-            {
-//                    errorPrintCodebook(codebook, "出错时码表");
-                throw new RuntimeException("Invalid code: " + code);
-            }
-
-            sbContent.append(entry);
-//            System.err.println("内容:"+sbContent);
-
-            BinaryStdOut.write(entry);
-            frequency.put(code, frequency.getOrDefault(code, 0) + 1);
-            lastUsed.put(code, timestamp++);
-//                printCodebook(lastUsed, "current刷新时间戳");
-
-            prevString = entry;
-            prevCode = code;
+            count = codebook.decodeNext(buffer, count);
         }
 
-        BinaryStdOut.close();
+        out.write(buffer, 0, count);
+        return length == DecoderCodebook.STOP ? codebook.width : -1;
     }
+
     /**
      * Helper class to store header information
      */
-    private static class HeaderInfo
+    static class HeaderInfo
     {
         int minW;
 
@@ -769,6 +910,14 @@ public class LZWTool
 
         String policy;
 
+        int flags;
+
         List<String> alphabet;
+
+        int dictionaryId;
+
+        int dictionaryHash;
+
+        Dictionary dictionary;  // supplied by the caller, checked against the ID and hash
     }
 }
\ No newline at end of file
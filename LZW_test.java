@@ -1,214 +1,948 @@
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
 
+/**
+ * LZW_test - 回归测试：在进程内把 TestFiles 里的每个文件用每种策略、几组 minW/maxW 压缩再解压，逐字节比对原始数据，
+ * 并与 LZW_test_baseline.csv 中记录的压缩大小比较；再检查归档、流、--range、字典、流水线和自动选择策略，最后用大文件
+ * 检查压缩和解压热循环的内存分配是否在预算之内。任何不一致、压缩率变差或超出分配预算都会以退出码 1 结束。
+ *
+ * <p>吞吐量只在加上 {@code --speed} 时检查：每种策略的吞吐量除以同一次运行中 freeze 的吞吐量，与基线中的这个比值比较，
+ * 所以换一台机器不用重新记录，但机器忙的时候仍可能误报。
+ *
+ * <p>用法：{@code java LZW_test [--speed]} 检查；{@code java LZW_test --record} 重新记录基线。
+ */
 public class LZW_test
 {
-    // 新增：读取文件内容并打印（返回内容字符串用于比较）
-    private static String readFileContent(String filePath) throws IOException
+    private static final String CORPUS = "TestFiles";
+    private static final String BASELINE = "LZW_test_baseline.csv";
+
+    private static final String[] POLICIES = {"freeze", "reset", "lru", "lfu", "adaptive"};
+
+    // 全语料使用 ascii 字母表加转义码，这样二进制文件也能逐字节还原
+    private static final int[][] WIDTHS = {{9, 12}, {9, 16}, {12, 16}};
+
+    // 压缩后大小允许比基线大多少，相对吞吐量允许比基线低多少
+    private static final double SIZE_TOLERANCE = 0.005;
+    private static final double SPEED_TOLERANCE = 0.25;
+
+    // 吞吐量的参照：同一次运行中这个策略的吞吐量
+    private static final String REFERENCE_POLICY = "freeze";
+
+    // 分配预算：热循环每个输入字节最多分配的字节数，以及每次调用与输入长度无关的固定分配（码表、缓冲区）
+    private static final double ALLOCATION_PER_BYTE = 0.01;
+    private static final long ALLOCATION_PER_CALL = 8L << 20;
+    private static final String[] ALLOCATION_FILES = {"large.txt", "all.tar"};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // 原来的手选用例：{文件, 字母表, 策略, minW, maxW}；字母表以外的字节被丢弃，与过滤后的原文比较
+    private static final String[][] CASES = {
+            {"test1.txt", "ab", "reset", "3", "4"},
+            {"test21.txt", "abrcd", "freeze", "3", "4"},
+            {"test22.txt", "abrcd", "freeze", "3", "4"},
+            {"test3.txt", "toberh", "reset", "3", "4"},
+            {"lru.txt", "ab", "lru", "3", "4"},
+            {"code.txt", "ascii", "freeze", "9", "16"},
+    };
+
+    private static int failures;
+
+    // 本次运行的结果：每个用例的压缩大小，每种策略的总字节数和耗时
+    private static final Map<String, Long> sizes = new LinkedHashMap<>();
+    private static final Map<String, long[]> speeds = new LinkedHashMap<>();  // {字节数, 压缩 CPU 纳秒, 解压 CPU 纳秒}
+
+    public static void main(String[] args) throws IOException
     {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath)))
+        List<String> options = Arrays.asList(args);
+        boolean record = options.contains("--record");
+        boolean checkSpeed = options.contains("--speed");
+
+        for (String[] c : CASES)
+        {
+            List<String> alphabet = LZWTool.readAlphabet("alphabets/" + c[1] + ".txt");
+            roundTrip(c[0], Files.readAllBytes(Paths.get(CORPUS, c[0])), alphabet, c[2], Integer.parseInt(c[3]),
+                    Integer.parseInt(c[4]), false, false);
+        }
+        checkEviction();
+
+        List<String> ascii = LZWTool.readAlphabet("alphabets/ascii.txt");
+        File[] files = new File(CORPUS).listFiles(File::isFile);
+        Arrays.sort(files);
+        for (String policy : POLICIES)
+        {
+            // 先预热一次，让吞吐量不包含 JIT 编译的时间
+            roundTrip(null, Files.readAllBytes(Paths.get(CORPUS, "large.txt")), ascii, policy, 9, 12, true, false);
+            for (File file : files)
+            {
+                byte[] data = Files.readAllBytes(file.toPath());
+                for (int[] w : WIDTHS)
+                {
+                    roundTrip(file.getName(), data, ascii, policy, w[0], w[1], true, false);
+                }
+                roundTrip(file.getName(), data, ascii, policy, 9, 12, false, false);
+                roundTrip(file.getName(), data, ascii, policy, 9, 12, true, true);
+            }
+        }
+
+        checkArchive(ascii);
+        checkStreams(ascii);
+        checkTruncated(ascii);
+        Dictionary dictionary = checkDictionary(ascii);
+        checkRange(ascii, null);
+        if (dictionary != null)
         {
-            String line;
-            System.err.println("===== 文件内容：" + filePath + " =====");
-            while ((line = reader.readLine()) != null)
+            checkRange(ascii, dictionary);
+        }
+        checkPipeline(ascii);
+        checkAuto(ascii);
+
+        for (String name : ALLOCATION_FILES)
+        {
+            byte[] data = Files.readAllBytes(Paths.get(CORPUS, name));
+            for (String policy : POLICIES)
             {
-                content.append(line).append("\n");
-                System.err.println(line); // 打印每行内容
+                checkAllocation(name, data, ascii, policy);
             }
-            System.err.println("=============================\n");
         }
-        return content.toString();
+
+        if (record)
+        {
+            writeBaseline(Paths.get(BASELINE));
+            System.err.println("基线已写入 " + BASELINE);
+        }
+        else
+        {
+            checkBaseline(Paths.get(BASELINE), checkSpeed);
+        }
+
+        for (Map.Entry<String, long[]> entry : speeds.entrySet())
+        {
+            long[] s = entry.getValue();
+            System.err.printf(Locale.ROOT, "%-9s 压缩 %.2f MB/s，解压 %.2f MB/s%n", entry.getKey(),
+                    megabytesPerSecond(s[0], s[1]), megabytesPerSecond(s[0], s[2]));
+        }
+        System.err.println(failures == 0 ? "✅ 全部通过（" + sizes.size() + " 个用例）" : "❌ " + failures + " 项失败");
+        System.exit(failures == 0 ? 0 : 1);
     }
 
-    public static boolean test(int minW, int maxW, String policy, String alphabetPath,String originalFile)
+    /**
+     * 压缩再解压一次并逐字节比对；name 为 null 时只做预热，不记录结果
+     *
+     * @param escapes 用转义码保留字母表以外的字节；否则期望结果是去掉这些字节后的原文
+     * @param blocks  用两个线程按块压缩和解压
+     */
+    private static void roundTrip(String name, byte[] data, List<String> alphabet, String policy, int minW, int maxW,
+                                  boolean escapes, boolean blocks)
     {
-        File originalFileObj = new File(originalFile);
-        String fileName = originalFileObj.getName(); // 获取文件名（如 "test3.txt"）
-        String baseName = fileName.substring(0, fileName.lastIndexOf('.')); // 提取不带扩展名的文件名（如 "test3"）
+        String key = name + "," + policy + "," + minW + "," + maxW + "," + (escapes ? "escape" : "plain")
+                + (blocks ? "+blocks" : "");
+        try
+        {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            long start = THREADS.getCurrentThreadCpuTime();
+            BitOutput out = new BitOutput(compressed);
+            if (blocks)
+            {
+                BlockCodec.compress(minW, maxW, policy, alphabet, new BitInput(ByteBuffer.wrap(data)), out, 2, 1 << 18,
+                        false, null, true);
+            }
+            else
+            {
+                LZWTool.compress(minW, maxW, policy, alphabet, null, escapes, new BitInput(ByteBuffer.wrap(data)),
+                        out);
+            }
+            long compressNanos = THREADS.getCurrentThreadCpuTime() - start;
 
-        // 压缩文件：原文件名_temp.lzw（如 "test3_temp.lzw"）
-        String compressedFile = originalFileObj.getParent() + File.separator + baseName + "_temp.lzw";
-        // 解压文件：原文件名_back.txt（如 "test3_back.txt"）
-        String decompressedFile = originalFileObj.getParent() + File.separator + baseName + "_back.txt";
+            ByteArrayOutputStream expanded = new ByteArrayOutputStream(data.length);
+            start = THREADS.getCurrentThreadCpuTime();
+            LZWTool.expand(new BitInput(ByteBuffer.wrap(compressed.toByteArray())), new BitOutput(expanded),
+                    blocks ? 2 : 1);
+            long expandNanos = THREADS.getCurrentThreadCpuTime() - start;
 
-        // ===== 新增：如果文件存在则删除 =====
-        File compFile = new File(compressedFile);
-        if (compFile.exists())
+            if (name == null)
+            {
+                return;
+            }
+            byte[] expected = escapes ? data : keepAlphabet(data, alphabet);
+            if (!Arrays.equals(expected, expanded.toByteArray()))
+            {
+                fail(key + " 解压结果与原文不一致");
+                return;
+            }
+            sizes.put(key, (long) compressed.size());
+            if (!blocks)
+            {
+                long[] s = speeds.computeIfAbsent(policy, p -> new long[3]);
+                s[0] += data.length;
+                s[1] += compressNanos;
+                s[2] += expandNanos;
+            }
+        }
+        catch (RuntimeException e)
         {
-            compFile.delete();
-            System.err.println("已删除残留压缩文件: " + compressedFile);
+            fail(key + " 抛出异常：" + e);
         }
+    }
 
-        // ===================================
+    /**
+     * 在 minW = maxW = 3、字母表 {a, b} 的码表上安排条目的使用，检查码表满了以后 lru 和 lfu 各淘汰哪个条目。
+     * 种子 a = 0、b = 1；依次加入 aa = 2、ab = 3、ba = 4、bb = 5、aaa = 6 后码表已满，aa 不再是叶子。
+     */
+    private static void checkEviction()
+    {
+        // ab 用得最多但最久没用：lru 淘汰 ab，lfu 淘汰只用过一次的叶子中最早的 ba
+        EncoderCodebook lru = fullCodebook(Codebook.LRU);
+        use(lru, 3, 3, 3, 4, 5, 6);
+        lru.add(6, 'b');
+        checkEntries("lru 淘汰最久未用的叶子", lru, "ab", "ba", "bb", "aaa", "aaab");
+        EncoderCodebook lfu = fullCodebook(Codebook.LFU);
+        use(lfu, 3, 3, 3, 4, 5, 6);
+        lfu.add(6, 'b');
+        checkEntries("lfu 淘汰用得最少的叶子", lfu, "ba", "ab", "bb", "aaa", "aaab");
+
+        // aaa 被淘汰后 aa 重新成为叶子，按它自己最后一次使用（在 ba 之后）排队，而不是排到最前面
+        lru = fullCodebook(Codebook.LRU);
+        use(lru, 6, 3, 4, 2, 5);
+        lru.add(5, 'a');
+        lru.add(6, 'b');
+        checkEntries("lru 按最后使用时间恢复前缀", lru, "ab", "aa", "ba", "bba", "bbab");
+        lru.add(3, 'a');
+        checkEntries("lru 按最后使用时间恢复前缀", lru, "ba", "aa", "bbaba");
+
+        // 作为内部条目时 aa 的使用同样计数，恢复后按 4 次使用排在用过 2 次的 ab、ba 之后
+        lfu = fullCodebook(Codebook.LFU);
+        use(lfu, 2, 2, 2, 6, 3, 3, 4, 4, 5, 5);
+        lfu.add(5, 'a');
+        lfu.add(6, 'b');
+        checkEntries("lfu 按使用次数恢复前缀", lfu, "ab", "aa", "ba", "bba", "bbab");
+        lfu.add(3, 'a');
+        checkEntries("lfu 按使用次数恢复前缀", lfu, "ba", "aa", "bbaba");
+    }
+
+    private static EncoderCodebook fullCodebook(int policy)
+    {
+        EncoderCodebook codebook = new EncoderCodebook(3, 3, policy, new byte[]{'a', 'b'});
+        codebook.add(0, 'a');
+        codebook.add(0, 'b');
+        codebook.add(1, 'a');
+        codebook.add(1, 'b');
+        codebook.add(2, 'a');
+        return codebook;
+    }
 
+    // 像编码器输出这些码那样记录使用
+    private static void use(Codebook codebook, int... codes)
+    {
+        for (int code : codes)
+        {
+            codebook.touch(code);
+        }
+    }
+
+    // evicted 应已不在码表中，kept 中的条目都应还在
+    private static void checkEntries(String what, EncoderCodebook codebook, String evicted, String... kept)
+    {
+        if (contains(codebook, evicted))
+        {
+            fail(what + "：" + evicted + " 没有被淘汰");
+        }
+        for (String phrase : kept)
+        {
+            if (!contains(codebook, phrase))
+            {
+                fail(what + "：" + phrase + " 不应被淘汰");
+            }
+        }
+    }
 
-        InputStream originalIn = System.in;
-        PrintStream originalOut = System.out;
+    private static boolean contains(EncoderCodebook codebook, String phrase)
+    {
+        int code = codebook.root(phrase.charAt(0));
+        for (int i = 1; i < phrase.length() && code >= 0; i++)
+        {
+            code = codebook.find(code, phrase.charAt(i));
+        }
+        return code >= 0;
+    }
 
+    /**
+     * 把几个文件打成归档并列出成员，再解压到指定目录和当前目录（不带 --out 时传入的 "."），逐字节比对；名字中带 ../ 的
+     * 成员必须被拒绝，不能写到目标目录之外
+     */
+    private static void checkArchive(List<String> alphabet) throws IOException
+    {
+        String[] names = {"code.txt", "edit.exe", "frosty.jpg"};
+        Path tmp = Files.createTempDirectory("lzw_test");
+        Path local = Files.createTempDirectory(Paths.get("."), "lzw_test");  // 解压到 "." 时成员落在这里
         try
         {
-            // ================ 第一步：执行压缩 ================
-            System.err.println("=== 开始压缩 ===");
-            System.err.println("原始文件: " + originalFile);
-            File oriFileCheck = new File(originalFile);
-            if (!oriFileCheck.exists() || oriFileCheck.length() == 0)
+            List<Path> files = new ArrayList<>();
+            List<String> members = new ArrayList<>();
+            for (String name : names)
+            {
+                files.add(Paths.get(CORPUS, name));
+                members.add(local.getFileName() + "/" + name);
+            }
+            Path archive = tmp.resolve("corpus.lzwa");
+            LZWArchive.create(files, members, archive, 9, 16, "lru", alphabet, true, 2);
+
+            List<LZWArchive.Member> listed = LZWArchive.list(archive);
+            for (int i = 0; i < members.size(); i++)
+            {
+                if (i >= listed.size() || !listed.get(i).name.equals(members.get(i))
+                        || listed.get(i).size != Files.size(files.get(i)))
+                {
+                    fail("归档目录与打包的文件不符：" + members.get(i));
+                }
+            }
+
+            Path out = tmp.resolve("out");
+            LZWArchive.extractAll(archive, out, 2);
+            LZWArchive.extractAll(archive, Paths.get("."), 2);
+            for (int i = 0; i < members.size(); i++)
             {
-                throw new IOException("请检查原始文件是否存在");
+                byte[] expected = Files.readAllBytes(files.get(i));
+                if (!Arrays.equals(expected, Files.readAllBytes(out.resolve(members.get(i)))))
+                {
+                    fail("归档解压到 " + out + " 后不一致：" + members.get(i));
+                }
+                if (!Arrays.equals(expected, Files.readAllBytes(Paths.get(members.get(i)))))
+                {
+                    fail("归档解压到当前目录后不一致：" + members.get(i));
+                }
             }
-            System.err.println("压缩文件: " + compressedFile);
-            try (FileInputStream fileIn = new FileInputStream(originalFile);
-                    FileOutputStream fileOut = new FileOutputStream(compressedFile))
+
+            Path evil = tmp.resolve("evil.lzwa");
+            LZWArchive.create(List.of(files.get(0)), List.of("../escaped.txt"), evil, 9, 16, "lru", alphabet, true,
+                    1);
+            try
             {
-                System.setIn(fileIn);
-                System.setOut(new PrintStream(fileOut));
-//                LZWTool_local.compress(minW, maxW, policy, alphabetPath);
+                LZWArchive.extractAll(evil, out, 1);
+                fail("归档成员 ../escaped.txt 没有被拒绝");
             }
-            finally
+            catch (IOException e)
             {
-                BinaryStdIn.close();
-                BinaryStdOut.close();
-                System.setIn(originalIn);
-                System.setOut(originalOut);
+                // 预期：成员名越出目标目录
             }
-            // ===== 新增：校验压缩文件是否为空 =====
-            File compFileCheck = new File(compressedFile);
-            if (!compFileCheck.exists() || compFileCheck.length() == 0)
+            if (Files.exists(tmp.resolve("escaped.txt")))
             {
-                throw new IOException("压缩失败：生成的压缩文件为空，请检查原始文件是否存在或压缩逻辑是否正确");
+                fail("归档成员 ../escaped.txt 写到了目标目录之外");
             }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail("归档往返抛出异常：" + e);
+        }
+        finally
+        {
+            deleteTree(tmp);
+            deleteTree(local);
+        }
+    }
 
-            System.err.println("压缩文件生成成功，大小：" + compFileCheck.length() + " 字节");
+    /**
+     * 用 LZWOutputStream 压缩、LZWInputStream 解压，每种策略往返一次；再只给解压流一半的压缩数据，一次 read 必须先交出
+     * 已经解出的字节，而不是等更多输入（等待在这里表现为输入流抛出异常）
+     */
+    private static void checkStreams(List<String> alphabet) throws IOException
+    {
+        byte[] data = Files.readAllBytes(Paths.get(CORPUS, "code.txt"));
+        for (String policy : POLICIES)
+        {
+            try
+            {
+                byte[] compressed = compressStream(data, policy, alphabet);
+                ByteArrayOutputStream expanded = new ByteArrayOutputStream(data.length);
+                try (LZWInputStream in = new LZWInputStream(new ByteArrayInputStream(compressed)))
+                {
+                    // 单字节读和不同长度的块读交替进行
+                    byte[] chunk = new byte[4099];
+                    for (int i = 0; ; i++)
+                    {
+                        if (i % 2 == 0)
+                        {
+                            int b = in.read();
+                            if (b < 0)
+                            {
+                                break;
+                            }
+                            expanded.write(b);
+                        }
+                        else
+                        {
+                            int k = in.read(chunk, 0, 1 + i % chunk.length);
+                            if (k < 0)
+                            {
+                                break;
+                            }
+                            expanded.write(chunk, 0, k);
+                        }
+                    }
+                }
+                if (!Arrays.equals(data, expanded.toByteArray()))
+                {
+                    fail("流 " + policy + " 解压结果与原文不一致");
+                }
 
-            System.err.println("=== 开始解压 ===");
-            try (FileInputStream fileIn = new FileInputStream(compressedFile);
-                    FileOutputStream fileOut = new FileOutputStream(decompressedFile))
+                Trickle source = new Trickle(compressed, compressed.length / 2);
+                expanded.reset();
+                try (LZWInputStream in = new LZWInputStream(source))
+                {
+                    byte[] chunk = new byte[data.length];
+                    int k = in.read(chunk, 0, chunk.length);
+                    if (k <= 0)
+                    {
+                        fail("流 " + policy + " 只有一半输入时没有交出任何字节");
+                        continue;
+                    }
+                    expanded.write(chunk, 0, k);
+                    source.release();
+                    while ((k = in.read(chunk, 0, chunk.length)) > 0)
+                    {
+                        expanded.write(chunk, 0, k);
+                    }
+                }
+                if (!Arrays.equals(data, expanded.toByteArray()))
+                {
+                    fail("流 " + policy + " 分两次到达时解压结果与原文不一致");
+                }
+            }
+            catch (IOException | RuntimeException e)
             {
-                System.setIn(fileIn);
-                System.setOut(new PrintStream(fileOut));
-//                LZWTool_local.expand();
+                fail("流 " + policy + " 抛出异常：" + e);
             }
-            finally
+        }
+    }
+
+    /**
+     * 压缩数据少了最后一个字节或只剩一半时，解压必须报 EOFException，不能把已经解出的部分当成完整结果：LZWTool.expand
+     * 把它包在 UncheckedIOException 里抛出，LZWInputStream 先交出已解出的字节，再在下一次 read 时抛出
+     */
+    private static void checkTruncated(List<String> alphabet) throws IOException
+    {
+        byte[] data = Files.readAllBytes(Paths.get(CORPUS, "code.txt"));
+        for (String policy : POLICIES)
+        {
+            byte[] compressed = compressStream(data, policy, alphabet);
+            for (int length : new int[]{compressed.length - 1, compressed.length / 2})
             {
+                byte[] truncated = Arrays.copyOf(compressed, length);
+                String what = policy + " 截断到 " + length + " 字节";
+                try
+                {
+                    LZWTool.expand(new BitInput(ByteBuffer.wrap(truncated)),
+                            new BitOutput(OutputStream.nullOutputStream()));
+                    fail(what + " 解压没有报错");
+                }
+                catch (UncheckedIOException e)
+                {
+                    if (!(e.getCause() instanceof EOFException))
+                    {
+                        fail(what + " 解压抛出的不是 EOFException：" + e.getCause());
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    fail(what + " 解压抛出的不是 EOFException：" + e);
+                }
 
-                BinaryStdIn.close();
-                BinaryStdOut.close();
-                System.setIn(originalIn);
-                System.setOut(originalOut);
+                try (LZWInputStream in = new LZWInputStream(new ByteArrayInputStream(truncated)))
+                {
+                    in.transferTo(OutputStream.nullOutputStream());
+                    fail(what + " 流解压没有报错");
+                }
+                catch (EOFException e)
+                {
+                    // 预期的结果
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    fail(what + " 流解压抛出的不是 EOFException：" + e);
+                }
             }
-            // ================ 第三步：读取并打印文件内容 ================
-            System.err.println("=== 读取原始文件内容 ===");
-            String originalContent = readFileContent(originalFile);
-            System.err.println("=== 读取解压文件内容 ===");
-            String decompressedContent = readFileContent(decompressedFile);
+        }
+    }
 
-            // ================ 第四步：比较内容一致性 ================
-            if (originalContent.equals(decompressedContent))
+    private static byte[] compressStream(byte[] data, String policy, List<String> alphabet) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (LZWOutputStream out = new LZWOutputStream(compressed, 9, 12, policy, alphabet, null, true))
+        {
+            out.write(data, 0, data.length / 3);
+            for (int i = data.length / 3; i < data.length / 2; i++)
             {
-                System.err.println(originalFile+"✅ 校验通过：内容一致");
-                return true;
+                out.write(data[i]);
             }
-            else
+            out.write(data, data.length / 2, data.length - data.length / 2);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * 先只交出前 available 个字节的输入流，release 之后才交出其余部分；在此之前读到尽头就相当于阻塞，直接抛出异常
+     */
+    private static class Trickle extends InputStream
+    {
+        private final byte[] data;
+        private int position;
+        private int limit;
+
+        Trickle(byte[] data, int available)
+        {
+            this.data = data;
+            this.limit = available;
+        }
+
+        void release()
+        {
+            limit = data.length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) throws IOException
+        {
+            if (position == data.length)
+            {
+                return -1;
+            }
+            if (position == limit)
             {
-                System.err.println(originalFile+"❌ 校验失败：内容不一致");
-                return false;
+                throw new IOException("读取会阻塞：输入还没有到达");
             }
+            int k = Math.min(length, limit - position);
+            System.arraycopy(data, position, b, offset, k);
+            position += k;
+            return k;
+        }
 
+        @Override
+        public int available()
+        {
+            return limit - position;
         }
-        catch (Exception e)
+    }
+
+    /**
+     * 用 code2.txt 训练字典，存盘再读回后压缩 code.txt：带字典应当更小，带同一字典能还原，不带字典或换一个字典必须被拒绝
+     *
+     * @return 训练出的字典，供 checkRange 使用；出错时为 null
+     */
+    private static Dictionary checkDictionary(List<String> alphabet) throws IOException
+    {
+        byte[] data = Files.readAllBytes(Paths.get(CORPUS, "code.txt"));
+        Path tmp = Files.createTempDirectory("lzw_test");
+        try
         {
-            System.err.println("测试失败：" + e.getMessage());
-            e.printStackTrace();
+            Path file = tmp.resolve("code.dict");
+            DictionaryTrainer.train(Paths.get(CORPUS, "code2.txt"), alphabet, 12, 16, 2).save(file);
+            Dictionary dictionary = Dictionary.load(file);
+
+            byte[] seeded = compressWith(data, alphabet, dictionary);
+            byte[] plain = compressWith(data, alphabet, null);
+            if (seeded.length >= plain.length)
+            {
+                fail("字典没有让 code.txt 变小：" + seeded.length + " 字节，不带字典 " + plain.length);
+            }
+            ByteArrayOutputStream expanded = new ByteArrayOutputStream(data.length);
+            LZWTool.expand(new BitInput(ByteBuffer.wrap(seeded)), new BitOutput(expanded), 1, dictionary);
+            if (!Arrays.equals(data, expanded.toByteArray()))
+            {
+                fail("带字典解压结果与原文不一致");
+            }
+
+            Dictionary other = DictionaryTrainer.train(Paths.get(CORPUS, "medium.txt"), alphabet, 12, 16, 2);
+            for (Dictionary wrong : new Dictionary[]{null, other})
+            {
+                try
+                {
+                    LZWTool.expand(new BitInput(ByteBuffer.wrap(seeded)),
+                            new BitOutput(OutputStream.nullOutputStream()), 1, wrong);
+                    fail("带字典的文件在" + (wrong == null ? "没有字典" : "换了字典") + "时仍然解压了");
+                }
+                catch (RuntimeException e)
+                {
+                    // 预期：文件头里的字典 ID 和哈希对不上
+                }
+            }
+            return dictionary;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail("字典往返抛出异常：" + e);
+            return null;
         }
-        return false;
+        finally
+        {
+            deleteTree(tmp);
+        }
+    }
 
+    private static byte[] compressWith(byte[] data, List<String> alphabet, Dictionary dictionary)
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        LZWTool.compress(12, 16, "lru", alphabet, dictionary, true, new BitInput(ByteBuffer.wrap(data)),
+                new BitOutput(compressed));
+        return compressed.toByteArray();
     }
 
-    public static void test3()
+    /**
+     * 把 all.tar 按 64 KiB 一块压缩成可定位的文件，再只解压其中几段：开头、跨块边界、整块、超出结尾被截短、长度为 0，
+     * 与原文对应的片段比较；不可定位的文件必须被拒绝
+     */
+    private static void checkRange(List<String> alphabet, Dictionary dictionary) throws IOException
     {
-        // 编码参数
-        int minW = 3;
-        int maxW = 4;
-        // 配置文件路径
-        String policy = "reset";
-        String alphabetPath = "alphabets/toberh.txt";
-        String originalFile = "TestFiles/test3.txt";       // 原始文件
-        String compressedFile = "TestFiles/test3_temp.lzw"; // 临时压缩文件
-        String decompressedFile = "TestFiles/test3_back.txt"; // 解压回退文件
-        test(minW, maxW, policy, alphabetPath, originalFile);
+        byte[] data = Files.readAllBytes(Paths.get(CORPUS, "all.tar"));
+        int blockSize = 1 << 16;
+        long[][] ranges = {{0, 1000}, {blockSize - 10, 100}, {3 * blockSize, 2 * blockSize},
+                {data.length - 50, 1000}, {blockSize + 7, 0}};
+        String what = "--range" + (dictionary == null ? "" : " 带字典");
+        Path tmp = Files.createTempDirectory("lzw_test");
+        try
+        {
+            Path file = tmp.resolve("all.lzw");
+            Path whole = tmp.resolve("whole.lzw");
+            try (OutputStream out = Files.newOutputStream(file); OutputStream wholeOut = Files.newOutputStream(whole))
+            {
+                BlockCodec.compress(9, 16, "lru", alphabet, new BitInput(ByteBuffer.wrap(data)), new BitOutput(out), 2,
+                        blockSize, true, dictionary, true);
+                LZWTool.compress(9, 16, "lru", alphabet, dictionary, true, new BitInput(ByteBuffer.wrap(data)),
+                        new BitOutput(wholeOut));
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                for (long[] range : ranges)
+                {
+                    int start = (int) range[0];
+                    int end = (int) Math.min(range[0] + range[1], data.length);
+                    ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+                    BlockCodec.expandRange(channel, range[0], range[1], dictionary, new BitOutput(expanded));
+                    if (!Arrays.equals(Arrays.copyOfRange(data, start, end), expanded.toByteArray()))
+                    {
+                        fail(what + " " + range[0] + ":" + range[1] + " 解压结果与原文不一致");
+                    }
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(whole, StandardOpenOption.READ))
+            {
+                BlockCodec.expandRange(channel, 0, 10, dictionary, new BitOutput(OutputStream.nullOutputStream()));
+                fail(what + " 没有拒绝不可定位的文件");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // 预期：文件不是用 --seekable 压缩的
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            fail(what + " 抛出异常：" + e);
+        }
+        finally
+        {
+            deleteTree(tmp);
+        }
     }
 
-    public static void test22()
+    /**
+     * 流水线压缩的输出必须与单线程压缩逐字节相同；读取线程用的 readSome 不能等待还没到达的输入；输入读到一半出错时，
+     * 错误必须传回调用方，而不是挂住或写出半个文件
+     */
+    private static void checkPipeline(List<String> alphabet) throws IOException
     {
-        // 编码参数
-        int minW = 3;
-        int maxW = 4;
-        // 配置文件路径
-        String policy = "freeze";
-        String alphabetPath = "alphabets/abrcd.txt";
-        String originalFile = "TestFiles/test22.txt";       // 原始文件
+        byte[] data = Files.readAllBytes(Paths.get(CORPUS, "large.txt"));
+        for (String policy : POLICIES)
+        {
+            try
+            {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                LZWTool.compress(9, 16, policy, alphabet, null, true, new BitInput(ByteBuffer.wrap(data)),
+                        new BitOutput(expected));
+                ByteArrayOutputStream pipelined = new ByteArrayOutputStream();
+                LZWTool.compressPipelined(9, 16, policy, alphabet, null, true, null,
+                        new BitInput(new ByteArrayInputStream(data)), new BitOutput(pipelined));
+                if (!Arrays.equals(expected.toByteArray(), pipelined.toByteArray()))
+                {
+                    fail("流水线 " + policy + " 的输出与单线程压缩不同");
+                }
+            }
+            catch (InterruptedException | RuntimeException e)
+            {
+                fail("流水线 " + policy + " 抛出异常：" + e);
+            }
+        }
 
-        test(minW, maxW, policy, alphabetPath, originalFile);
+        // 读取线程每块只读一次数据源：输入只到了一部分时，先交出已到的字节，而不是等着把整块填满
+        try
+        {
+            byte[] chunk = new byte[1 << 18];
+            int k = new BitInput(new Trickle(data, 1000)).readSome(chunk, 0, chunk.length);
+            if (k != 1000)
+            {
+                fail("readSome 在只有 1000 字节可读时读到了 " + k + " 字节");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            fail("readSome 等待了还没到达的输入：" + e);
+        }
+
+        try
+        {
+            LZWTool.compressPipelined(9, 16, "lru", alphabet, null, true, null,
+                    new BitInput(new Trickle(data, data.length / 2)), new BitOutput(OutputStream.nullOutputStream()));
+            fail("流水线没有报告输入出错");
+        }
+        catch (InterruptedException | RuntimeException e)
+        {
+            // 预期：读取线程的异常传回了编码线程
+        }
     }
 
-    public static void test21()
+    /**
+     * 自动选择策略：auto 选出的结果不能比任何一种策略在 maxW 下更大，auto-speed 必须选出合法的策略和宽度；
+     * 两者的选择都要能往返。输入太小时不比赛，直接用 freeze 和 maxW
+     */
+    private static void checkAuto(List<String> alphabet) throws IOException
     {
-        // 编码参数
-        int minW = 3;
-        int maxW = 4;
-        // 配置文件路径
-        String policy = "freeze";
-        String alphabetPath = "alphabets/abrcd.txt";
-        String originalFile = "TestFiles/test21.txt";       // 原始文件
+        Path file = Paths.get(CORPUS, "all.tar");
+        byte[] data = Files.readAllBytes(file);
+        byte[] sample = AutoPolicy.sample(file);
+        int length = Math.min(sample.length, 1 << 18);  // 比赛的预算是输入的两倍，all.tar 够用整段样本比赛
+        try
+        {
+            AutoPolicy.Choice small = AutoPolicy.choose(sample, 1000, 1000, 9, 16, alphabet, null, true, true);
+            if (!small.policy.equals("freeze") || small.maxW != 16)
+            {
+                fail("1000 字节的输入仍然比了赛，选了 " + small.policy + "/" + small.maxW);
+            }
+
+            AutoPolicy.Choice smallest = AutoPolicy.choose(sample, length, data.length, 9, 16, alphabet, null, true,
+                    false);
+            for (String policy : POLICIES)
+            {
+                BitOutput out = new BitOutput(OutputStream.nullOutputStream());
+                LZWTool.compress(9, 16, policy, alphabet, null, true, new BitInput(ByteBuffer.wrap(sample, 0, length)),
+                        out);
+                if (out.bitsWritten() < smallest.bits)
+                {
+                    fail("auto 选了 " + smallest.policy + "/" + smallest.maxW + "，但 " + policy + "/16 更小");
+                }
+            }
 
-        test(minW, maxW, policy, alphabetPath, originalFile);
+            AutoPolicy.Choice fastest = AutoPolicy.choose(sample, length, data.length, 9, 16, alphabet, null, true,
+                    true);
+            for (AutoPolicy.Choice choice : new AutoPolicy.Choice[]{smallest, fastest})
+            {
+                if (!Arrays.asList(POLICIES).contains(choice.policy) || choice.maxW < 9 || choice.maxW > 16)
+                {
+                    fail("自动选择给出了不存在的候选：" + choice.policy + "/" + choice.maxW);
+                    continue;
+                }
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                LZWTool.compress(9, choice.maxW, choice.policy, alphabet, null, true,
+                        new BitInput(ByteBuffer.wrap(data)), new BitOutput(compressed));
+                ByteArrayOutputStream expanded = new ByteArrayOutputStream(data.length);
+                LZWTool.expand(new BitInput(ByteBuffer.wrap(compressed.toByteArray())), new BitOutput(expanded));
+                if (!Arrays.equals(data, expanded.toByteArray()))
+                {
+                    fail("自动选择的 " + choice.policy + "/" + choice.maxW + " 解压结果与原文不一致");
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            fail("自动选择策略抛出异常：" + e);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException
+    {
+        try (Stream<Path> walk = Files.walk(dir))
+        {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * 分别压缩、解压文件的前一半和全部，用两次分配之差除以长度之差得到热循环每字节的分配量，与固定开销分开检查。
+     * 输入输出都是预先分配好的数组，所以量到的只是编解码器自己的分配。
+     */
+    private static void checkAllocation(String name, byte[] data, List<String> alphabet, String policy)
+    {
+        byte[] compressed = new byte[4 * data.length + (1 << 16)];
+        byte[] expanded = new byte[data.length];
+        int[] lengths = {data.length / 2, data.length};
+        long[] compressAllocated = new long[2];
+        long[] expandAllocated = new long[2];
+
+        // 第一轮只做预热：解释执行和 C1 编译的代码还没有做逃逸分析
+        for (int round = 0; round < 2; round++)
+        {
+            for (int k = 0; k < 2; k++)
+            {
+                ByteBuffer out = ByteBuffer.wrap(compressed);
+                long before = allocatedBytes();
+                LZWTool.compress(9, 16, policy, alphabet, null, true,
+                        new BitInput(ByteBuffer.wrap(data, 0, lengths[k])), new BitOutput(out));
+                compressAllocated[k] = allocatedBytes() - before;
+
+                int length = out.position();
+                before = allocatedBytes();
+                LZWTool.expand(new BitInput(ByteBuffer.wrap(compressed, 0, length)),
+                        new BitOutput(ByteBuffer.wrap(expanded)));
+                expandAllocated[k] = allocatedBytes() - before;
+            }
+        }
+
+        long growth = Math.max(lengths[1] - lengths[0], 1);
+        checkBudget(name + "," + policy + " 压缩", compressAllocated, growth);
+        checkBudget(name + "," + policy + " 解压", expandAllocated, growth);
+    }
+
+    private static void checkBudget(String what, long[] allocated, long growth)
+    {
+        double perByte = (double) (allocated[1] - allocated[0]) / growth;
+        if (perByte > ALLOCATION_PER_BYTE)
+        {
+            fail(String.format(Locale.ROOT, "%s 热循环分配 %.4f 字节/输入字节，预算 %.4f", what, perByte,
+                    ALLOCATION_PER_BYTE));
+        }
+        if (allocated[1] > ALLOCATION_PER_CALL + ALLOCATION_PER_BYTE * 2 * growth)
+        {
+            fail(what + " 一次调用分配 " + allocated[1] + " 字节，超出预算");
+        }
     }
 
-    public static void test1()
+    private static long allocatedBytes()
     {
-        // 编码参数
-        int minW = 3;
-        int maxW = 4;
-        // 配置文件路径
-        String policy = "reset";
-        String alphabetPath = "alphabets/ab.txt";
-        String originalFile = "TestFiles/test1.txt";       // 原始文件
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
 
-        test(minW, maxW, policy, alphabetPath, originalFile);
+    // 去掉字母表以外的字节，即不用转义码时解压应得到的内容
+    private static byte[] keepAlphabet(byte[] data, List<String> alphabet)
+    {
+        boolean[] kept = new boolean[256];
+        for (byte b : Codebook.seedSymbols(alphabet))
+        {
+            kept[b & 0xff] = true;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        for (byte b : data)
+        {
+            if (kept[b & 0xff])
+            {
+                out.write(b);
+            }
+        }
+        return out.toByteArray();
     }
 
-    public static void testlru()
+    private static void writeBaseline(Path path) throws IOException
     {
-        // 编码参数
-        int minW = 3;
-        int maxW = 4;
-        // 配置文件路径
-        String policy = "lru";
-        String alphabetPath = "alphabets/ab.txt";
-        String originalFile = "TestFiles/lru.txt";       // 原始文件
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : sizes.entrySet())
+        {
+            lines.add("size," + entry.getKey() + "," + entry.getValue());
+        }
+        for (String policy : speeds.keySet())
+        {
+            lines.add(String.format(Locale.ROOT, "speed,%s,%.3f,%.3f", policy, relativeSpeed(policy, 1),
+                    relativeSpeed(policy, 2)));
+        }
+        Files.write(path, lines);
+    }
 
-        test(minW, maxW, policy, alphabetPath, originalFile);
+    // 压缩后大小不能超过基线；checkSpeed 时每种策略相对参照策略的吞吐量也不能低于基线太多
+    private static void checkBaseline(Path path, boolean checkSpeed) throws IOException
+    {
+        if (!Files.exists(path))
+        {
+            System.err.println("没有基线文件 " + BASELINE + "，只检查了往返；用 --record 生成");
+            return;
+        }
+        for (String line : Files.readAllLines(path))
+        {
+            String[] f = line.split(",");
+            if (f[0].equals("size"))
+            {
+                String key = String.join(",", Arrays.copyOfRange(f, 1, f.length - 1));
+                long baseline = Long.parseLong(f[f.length - 1]);
+                Long size = sizes.get(key);
+                if (size == null)
+                {
+                    System.err.println("基线中的用例不再存在：" + key);
+                }
+                else if (size > baseline * (1 + SIZE_TOLERANCE))
+                {
+                    fail(key + " 压缩率变差：" + size + " 字节，基线 " + baseline);
+                }
+            }
+            else if (f[0].equals("speed") && checkSpeed && speeds.containsKey(f[1]))
+            {
+                checkSpeed(f[1] + " 压缩", relativeSpeed(f[1], 1), Double.parseDouble(f[2]));
+                checkSpeed(f[1] + " 解压", relativeSpeed(f[1], 2), Double.parseDouble(f[3]));
+            }
+        }
     }
 
-    public static void testAscii()
+    private static void checkSpeed(String what, double speed, double baseline)
     {
-        // 编码参数
-        int minW = 9;
-        int maxW = 16;
-        // 配置文件路径
-        String policy = "freeze";
-        String alphabetPath = "alphabets/ascii.txt";
-        String originalFile = "TestFiles/code.txt";       // 原始文件
+        if (speed < baseline * (1 - SPEED_TOLERANCE))
+        {
+            fail(String.format(Locale.ROOT, "%s 变慢：%s 的 %.3f 倍，基线 %.3f 倍", what, REFERENCE_POLICY, speed,
+                    baseline));
+        }
+    }
 
-        test(minW, maxW, policy, alphabetPath, originalFile);
+    // 本次运行中 policy 的吞吐量除以参照策略的吞吐量；phase 为 1 取压缩，为 2 取解压
+    private static double relativeSpeed(String policy, int phase)
+    {
+        long[] s = speeds.get(policy);
+        long[] reference = speeds.get(REFERENCE_POLICY);
+        return megabytesPerSecond(s[0], s[phase]) / megabytesPerSecond(reference[0], reference[phase]);
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos)
+    {
+        return bytes * 1e3 / Math.max(nanos, 1);
     }
 
-    public static void main(String[] args)
+    private static void fail(String message)
     {
-        test1();   //ok
-        test21();  //ok
-        test22(); //ok
-        test3(); //ok
-//          testlru(); //没通过
-//        testAscii(); //没通过
+        failures++;
+        System.err.println("❌ " + message);
     }
 }
@@ -0,0 +1,178 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RatioTrace - CSV timeline of how compression goes over a stream, for tuning minW, maxW and the policy. The encoder
+ * takes a sample every {@code interval} input bytes: bytes in, bits out, W, nextCode and the eviction and reset
+ * counts. Samples go into a preallocated ring of primitive arrays, and a writer thread formats them into the file, so
+ * the encoder never touches the file or allocates. As in {@link ChunkPipe}, only the encoder writes the tail and only
+ * the writer writes the head.
+ *
+ * <p>Columns: bytes_in, bits_out, ratio (bits out per 8 bits in, since the start), window_ratio (the same since the
+ * previous sample), width, next_code, evictions and resets (since the start).
+ */
+public class RatioTrace implements AutoCloseable
+{
+    /**
+     * Input bytes between samples unless another interval is given
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 16;
+
+    private static final int CAPACITY = 1 << 12;  // samples in the ring
+    private static final int MASK = CAPACITY - 1;
+
+    private static final long PARK_NANOS = 100_000;
+
+    private final int interval;
+
+    private final long[] bytesIn = new long[CAPACITY];
+    private final long[] bitsOut = new long[CAPACITY];
+    private final int[] widths = new int[CAPACITY];
+    private final int[] nextCodes = new int[CAPACITY];
+    private final long[] evictions = new long[CAPACITY];
+    private final int[] resets = new int[CAPACITY];
+
+    private volatile long head;     // next sample the writer formats
+    private volatile long tail;     // next sample the encoder fills
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private final Thread writer;
+
+    /**
+     * Parse a trace interval in bytes, with an optional K, M or G suffix
+     *
+     * @throws IllegalArgumentException if the interval is not a number of bytes between 1 and
+     *         {@link Integer#MAX_VALUE}
+     */
+    public static int parseInterval(String text)
+    {
+        long interval;
+        try
+        {
+            interval = BlockCodec.parseBytes(text);
+        }
+        catch (NumberFormatException e)
+        {
+            interval = 0;
+        }
+        if (interval < 1 || interval > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Trace interval must be between 1 and " + Integer.MAX_VALUE
+                    + " bytes: " + text);
+        }
+        return (int) interval;
+    }
+
+    /**
+     * Start writing a trace to {@code path}, one sample per {@code interval} input bytes
+     */
+    public RatioTrace(Path path, int interval) throws IOException
+    {
+        if (interval < 1)
+        {
+            throw new IllegalArgumentException("Trace interval must be at least 1 byte");
+        }
+        this.interval = interval;
+        BufferedWriter out = Files.newBufferedWriter(path);
+        writer = new Thread(() -> drain(out), "lzw-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Input bytes between samples
+     */
+    public int interval()
+    {
+        return interval;
+    }
+
+    /**
+     * Encoder: record one sample, waiting only if the writer has fallen a whole ring behind
+     */
+    void sample(long bytes, long bits, int width, int nextCode, long evicted, int resetCount)
+    {
+        while (tail - head == CAPACITY && failure == null)
+        {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        int i = (int) tail & MASK;
+        bytesIn[i] = bytes;
+        bitsOut[i] = bits;
+        widths[i] = width;
+        nextCodes[i] = nextCode;
+        evictions[i] = evicted;
+        resets[i] = resetCount;
+        tail = tail + 1;
+    }
+
+    /**
+     * Write out the samples still in the ring and close the file
+     *
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the trace", e);
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    // Writer thread: format samples as they arrive until closed and empty
+    private void drain(BufferedWriter out)
+    {
+        try (out)
+        {
+            out.write("bytes_in,bits_out,ratio,window_ratio,width,next_code,evictions,resets\n");
+            long lastBytes = 0;
+            long lastBits = 0;
+            while (true)
+            {
+                if (head == tail)
+                {
+                    if (closed && head == tail)
+                    {
+                        break;
+                    }
+                    LockSupport.parkNanos(PARK_NANOS);
+                    continue;
+                }
+                int i = (int) head & MASK;
+                long bytes = bytesIn[i];
+                long bits = bitsOut[i];
+                out.write(String.format(Locale.ROOT, "%d,%d,%.4f,%.4f,%d,%d,%d,%d\n", bytes, bits,
+                        ratio(bits, bytes), ratio(bits - lastBits, bytes - lastBytes), widths[i], nextCodes[i],
+                        evictions[i], resets[i]));
+                lastBytes = bytes;
+                lastBits = bits;
+                head = head + 1;
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    private static double ratio(long bits, long bytes)
+    {
+        return bytes == 0 ? 0 : bits / (8.0 * bytes);
+    }
+}
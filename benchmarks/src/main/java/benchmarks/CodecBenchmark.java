@@ -0,0 +1,178 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * CodecBenchmark - {@code LZWBenchmark} under JMH: compress and expand every file, policy and minW/maxW pair, with
+ * bytes outside the alphabet kept as escapes so each file expands back to its full length. Scores are operations per
+ * second; next to each one JMH lists {@code megabytes}, the MB (10^6 bytes) of the file coded per second, and
+ * {@code ratio}, compressed size over file size, as {@code LZWBenchmark} prints them. The GC profiler is always added,
+ * so every result also comes with the bytes allocated per operation ({@code gc.alloc.rate.norm}).
+ *
+ * <p>Run from the top of the repository, where the {@code TestFiles} and {@code alphabets} paths resolve:
+ * {@code java -jar benchmarks/target/benchmarks.jar [JMH options]}, e.g. {@code -p policy=lru,lfu -p widths=9:16}.
+ *
+ * <p>The codec lives in the default package, which JMH benchmarks cannot, and classes in a named package cannot
+ * refer to it by name, so it is reached through method handles to {@code LZWBenchmark}; JMH's own runs of each
+ * benchmark JIT them like direct calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark
+{
+    private static final MethodHandle READ_ALPHABET = codec("LZWTool", "readAlphabet",
+            MethodType.methodType(List.class, String.class));
+
+    private static final MethodHandle COMPRESS = codec("LZWBenchmark", "compress",
+            MethodType.methodType(int.class, int.class, int.class, String.class, List.class, byte[].class,
+                    byte[].class));
+
+    private static final MethodHandle EXPAND = codec("LZWBenchmark", "expand",
+            MethodType.methodType(int.class, byte[].class, int.class, byte[].class));
+
+    @Param({"TestFiles/large.txt", "TestFiles/wacky.bmp", "TestFiles/frosty.jpg", "TestFiles/edit.exe",
+            "TestFiles/all.tar"})
+    public String file;
+
+    @Param({"freeze", "reset", "lru", "lfu", "adaptive"})
+    public String policy;
+
+    @Param({"9:12", "9:16", "12:16"})
+    public String widths;
+
+    @Param("alphabets/ascii.txt")
+    public String alphabetPath;
+
+    private List<String> alphabet;
+    private int minW;
+    private int maxW;
+    private byte[] data;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] expanded;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        alphabet = (List<String>) READ_ALPHABET.invokeExact(alphabetPath);
+        String[] w = widths.split(":");
+        minW = Integer.parseInt(w[0]);
+        maxW = Integer.parseInt(w[1]);
+        data = Files.readAllBytes(Paths.get(file));
+
+        // Worst case is an escape code of maxW bits and a literal byte for every byte, plus the header
+        compressed = new byte[4 * data.length + (1 << 16)];
+        expanded = new byte[data.length];
+        compressedLength = (int) COMPRESS.invokeExact(minW, maxW, policy, alphabet, data, compressed);
+        if ((int) EXPAND.invokeExact(compressed, compressedLength, expanded) != data.length)
+        {
+            throw new IllegalStateException(file + " did not expand to its original length");
+        }
+    }
+
+    @Benchmark
+    public int compress(Megabytes megabytes, Ratio ratio) throws Throwable
+    {
+        megabytes.megabytes += data.length / 1e6;
+        ratio.ratio = ratio.share * compressedLength / Math.max(data.length, 1);
+        return (int) COMPRESS.invokeExact(minW, maxW, policy, alphabet, data, compressed);
+    }
+
+    @Benchmark
+    public int expand(Megabytes megabytes, Ratio ratio) throws Throwable
+    {
+        megabytes.megabytes += data.length / 1e6;
+        ratio.ratio = ratio.share * compressedLength / Math.max(data.length, 1);
+        return (int) EXPAND.invokeExact(compressed, compressedLength, expanded);
+    }
+
+    /**
+     * MB of the file coded, which JMH divides by the time like the score: the throughput in MB/s
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes
+    {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void clear()
+        {
+            megabytes = 0;
+        }
+    }
+
+    /**
+     * Compressed size over file size. JMH adds up event counters over every measured iteration of every fork, so each
+     * iteration reports its share of the ratio and the result is the ratio itself.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Ratio
+    {
+        public double ratio;
+
+        private double share;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params)
+        {
+            share = 1.0 / (params.getMeasurement().getCount() * Math.max(params.getForks(), 1));
+        }
+    }
+
+    /**
+     * Run the benchmarks with the given JMH options and the GC profiler
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(CodecBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    private static MethodHandle codec(String className, String name, MethodType type)
+    {
+        try
+        {
+            return MethodHandles.publicLookup().findStatic(Class.forName(className), name, type);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}